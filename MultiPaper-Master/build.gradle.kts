@@ -4,6 +4,7 @@ plugins {
     java
     `maven-publish`
     id("com.github.johnrengelman.shadow")
+    id("me.champeau.jmh")
 }
 
 repositories {
@@ -29,6 +30,17 @@ dependencies {
     compileOnly("net.md-5:bungeecord-api:1.16-R0.4")
     compileOnly("com.velocitypowered:velocity-api:3.4.0-SNAPSHOT")
     annotationProcessor("com.velocitypowered:velocity-api:3.4.0-SNAPSHOT")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+}
+
+tasks.test {
+    useJUnitPlatform()
+    systemProperty("datastorage.directory", File(temporaryDir, "datastorage").path)
 }
 
 tasks.jar {
@@ -0,0 +1,119 @@
+package puregero.multipaper.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock, subscribe and owner lookup throughput of ChunkSubscriptionManager
+ * against the ChunkKey based bookkeeping it replaced. Every thread is its own
+ * server working on its own area of a world that already has many chunks
+ * loaded, so no messages need to be sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Threads(4)
+public class ChunkSubscriptionBenchmark {
+
+    private static final String WORLD = "world";
+    private static final int LOADED_RADIUS = 256; // 512x512 chunks owned by another server
+    private static final int AREA = 64;
+
+    @Param({ "indexed", "legacy" })
+    public String implementation;
+
+    private boolean legacy;
+    private LegacyChunkSubscriptionManager legacyManager;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Server {
+        private ServerConnection connection;
+        private int originX;
+        private int index = 0;
+
+        @Setup(Level.Trial)
+        public void setUp(ChunkSubscriptionBenchmark benchmark) {
+            connection = new ServerConnection(null);
+            // Beyond the loaded chunks, so that locking and subscribing never involves another server
+            originX = LOADED_RADIUS + AREA * benchmark.threads.getAndIncrement();
+        }
+
+        private int nextX() {
+            return originX + (index & (AREA - 1));
+        }
+
+        private int nextZ() {
+            return (index++ >> 6) & (AREA - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        legacy = implementation.equals("legacy");
+        legacyManager = new LegacyChunkSubscriptionManager();
+
+        ServerConnection owner = new ServerConnection(null);
+        for (int x = -LOADED_RADIUS; x < LOADED_RADIUS; x++) {
+            for (int z = -LOADED_RADIUS; z < LOADED_RADIUS; z++) {
+                if (legacy) {
+                    legacyManager.lock(owner, WORLD, x, z);
+                } else {
+                    ChunkSubscriptionManager.lock(owner, WORLD, x, z);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public ServerConnection lockAndUnlock(Server server) {
+        int x = server.nextX();
+        int z = server.nextZ();
+        if (legacy) {
+            ServerConnection owner = legacyManager.lock(server.connection, WORLD, x, z);
+            legacyManager.unlock(server.connection, WORLD, x, z);
+            return owner;
+        } else {
+            ServerConnection owner = ChunkSubscriptionManager.lock(server.connection, WORLD, x, z);
+            ChunkSubscriptionManager.unlock(server.connection, WORLD, x, z);
+            return owner;
+        }
+    }
+
+    @Benchmark
+    public void subscribeAndUnsubscribe(Server server) {
+        int x = server.nextX();
+        int z = server.nextZ();
+        if (legacy) {
+            legacyManager.subscribe(server.connection, WORLD, x, z);
+            legacyManager.unsubscribe(server.connection, WORLD, x, z);
+        } else {
+            ChunkSubscriptionManager.subscribe(server.connection, WORLD, x, z);
+            ChunkSubscriptionManager.unsubscribe(server.connection, WORLD, x, z);
+        }
+    }
+
+    @Benchmark
+    public ServerConnection getOwner(Server server) {
+        int x = server.nextX() - LOADED_RADIUS * 2;
+        int z = server.nextZ();
+        return legacy ? legacyManager.getOwner(WORLD, x, z) : ChunkSubscriptionManager.getOwner(WORLD, x, z);
+    }
+}
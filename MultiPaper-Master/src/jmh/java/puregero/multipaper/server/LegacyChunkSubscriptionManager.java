@@ -0,0 +1,140 @@
+package puregero.multipaper.server;
+
+import puregero.multipaper.mastermessagingprotocol.ChunkKey;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bookkeeping of ChunkSubscriptionManager before chunks were indexed by
+ * packed coordinates, kept as a baseline for ChunkSubscriptionBenchmark: a
+ * ChunkKey per call, ConcurrentHashMaps of connection lists and a set of keys
+ * per server. Messages to other servers are left out, the benchmark never has
+ * any to send.
+ */
+class LegacyChunkSubscriptionManager {
+
+    private static final int LOCK_COUNT_MASK = 63;
+
+    private final Object[] locks = new Object[LOCK_COUNT_MASK + 1];
+    private final Queue<List<ServerConnection>> objectPool = new LinkedList<>();
+
+    // Index 0 in the list is the current chunk owning it
+    private final Map<ChunkKey, List<ServerConnection>> chunkLocks = new ConcurrentHashMap<>();
+    private final Map<ChunkKey, List<ServerConnection>> chunkSubscribers = new ConcurrentHashMap<>();
+
+    // Plain HashMaps before, which isn't safe with several benchmark threads
+    private final Map<ServerConnection, Set<ChunkKey>> lockedChunks = new ConcurrentHashMap<>();
+    private final Map<ServerConnection, Set<ChunkKey>> subscribedChunks = new ConcurrentHashMap<>();
+
+    LegacyChunkSubscriptionManager() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object getChunkLock(ChunkKey key) {
+        return locks[key.hashCode() & LOCK_COUNT_MASK];
+    }
+
+    private List<ServerConnection> newList() {
+        synchronized (objectPool) {
+            List<ServerConnection> list = objectPool.poll();
+            if (list != null) {
+                return list;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    ServerConnection getOwner(String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (getChunkLock(key)) {
+            List<ServerConnection> serverConnections = chunkLocks.get(key);
+            if (serverConnections != null && !serverConnections.isEmpty()) {
+                return serverConnections.get(0);
+            }
+        }
+        return null;
+    }
+
+    ServerConnection lock(ServerConnection serverConnection, String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (getChunkLock(key)) {
+            List<ServerConnection> serverConnections = chunkLocks.computeIfAbsent(key, key2 -> newList());
+
+            if (!serverConnections.contains(serverConnection)) {
+                serverConnections.add(serverConnection);
+                lockedChunks.computeIfAbsent(serverConnection, k -> ConcurrentHashMap.newKeySet()).add(key);
+                chunkSubscribers.get(key); // looked up to tell the subscribers about the new owner
+            }
+
+            return serverConnections.get(0);
+        }
+    }
+
+    void unlock(ServerConnection serverConnection, String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (getChunkLock(key)) {
+            List<ServerConnection> serverConnections = chunkLocks.get(key);
+            if (serverConnections != null) {
+                if (serverConnections.remove(serverConnection)) {
+                    chunkSubscribers.get(key);
+                }
+                if (serverConnections.isEmpty()) {
+                    chunkLocks.remove(key);
+                    synchronized (objectPool) {
+                        objectPool.add(serverConnections);
+                    }
+                }
+            }
+
+            Set<ChunkKey> chunks = lockedChunks.get(serverConnection);
+            if (chunks != null) {
+                chunks.remove(key);
+            }
+        }
+    }
+
+    void subscribe(ServerConnection serverConnection, String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (getChunkLock(key)) {
+            List<ServerConnection> serverConnections = chunkSubscribers.computeIfAbsent(key, key2 -> newList());
+
+            if (!serverConnections.contains(serverConnection)) {
+                serverConnections.add(serverConnection);
+                subscribedChunks.computeIfAbsent(serverConnection, k -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+
+            if (chunkLocks.get(key) != null && !chunkLocks.get(key).isEmpty()) {
+                chunkLocks.get(key).get(0);
+            }
+        }
+    }
+
+    void unsubscribe(ServerConnection serverConnection, String world, int cx, int cz) {
+        ChunkKey key = new ChunkKey(world, cx, cz);
+        synchronized (getChunkLock(key)) {
+            List<ServerConnection> serverConnections = chunkSubscribers.get(key);
+            if (serverConnections != null) {
+                serverConnections.remove(serverConnection);
+                if (serverConnections.isEmpty()) {
+                    chunkSubscribers.remove(key);
+                    synchronized (objectPool) {
+                        objectPool.add(serverConnections);
+                    }
+                }
+            }
+
+            Set<ChunkKey> chunks = subscribedChunks.get(serverConnection);
+            if (chunks != null) {
+                chunks.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package puregero.multipaper.server.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads random chunks of one region file with each engine, from one thread
+ * and from several at once, as when many servers stream chunks from the same
+ * region.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionFileBenchmark {
+
+    @Param({ "randomaccess", "mmap" })
+    public String engine;
+
+    private File directory;
+    private RegionFile regionFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("regionfile-benchmark").toFile();
+        File file = new File(directory, "r.0.0.mca");
+        regionFile = engine.equals("mmap") ? new MappedRegionFile(file) : new RandomAccessRegionFile(file);
+
+        // Deflated chunks are usually a few sectors long
+        Random random = new Random(1234);
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                byte[] data = new byte[2048 + random.nextInt(12 * 1024)];
+                random.nextBytes(data);
+                regionFile.putDeflatedBytes(x, z, data);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        regionFile.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private byte[] readRandomChunk() {
+        int index = ThreadLocalRandom.current().nextInt(1024);
+        return regionFile.getDeflatedBytes(index & 31, index >> 5);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] read() {
+        return readRandomChunk();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] readConcurrently() {
+        return readRandomChunk();
+    }
+}
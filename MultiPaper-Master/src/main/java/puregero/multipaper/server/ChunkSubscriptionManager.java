@@ -1,242 +1,529 @@
 package puregero.multipaper.server;
 
 import puregero.multipaper.mastermessagingprotocol.ChunkKey;
-import puregero.multipaper.mastermessagingprotocol.messages.serverbound.AddChunkSubscriberMessage;
-import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ChunkSubscribersSyncMessage;
-import puregero.multipaper.mastermessagingprotocol.messages.serverbound.RemoveChunkSubscriberMessage;
-import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetChunkOwnerMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.ProtocolFeatures;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.*;
 import puregero.multipaper.server.util.ChunkLock;
+import puregero.multipaper.server.util.LongObjectHashMap;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Keeps track of which servers own and are subscribed to each chunk.
+ *
+ * Chunks are indexed per world by their packed coordinates, and servers by a
+ * small id, so looking up a chunk's owner or subscribers doesn't allocate.
+ * Each world's index is split into one map per chunk lock, and a map is only
+ * ever touched while holding its lock.
+ *
+ * With -Dchunk.ownership.cell.size=N (2 to 32) chunks are owned and
+ * subscribed to in square cells of N by N chunks instead: locking any chunk
+ * of a cell locks the whole cell, and owner and subscriber changes are
+ * broadcast once per cell. A server keeps its place in a cell until it has
+ * unlocked or unsubscribed every chunk it locked or subscribed to in it.
+ */
 public class ChunkSubscriptionManager {
 
-    private static final Queue<List<ServerConnection>> objectPool = new LinkedList<>();
+    private static final int CELL_SIZE = Integer.highestOneBit(Math.max(1, Math.min(32, Integer.getInteger("chunk.ownership.cell.size", 1))));
+    private static final int CELL_SHIFT = Integer.numberOfTrailingZeros(CELL_SIZE);
+    private static final int CELL_MASK = CELL_SIZE - 1;
 
-    // Index 0 in the list is the current chunk owning it
-    private static final Map<ChunkKey, List<ServerConnection>> chunkLocks = new ConcurrentHashMap<>();
-    private static final Map<ChunkKey, List<ServerConnection>> chunkSubscribers = new ConcurrentHashMap<>();
+    // Each holder of a cell takes up one id followed by a bitmask of the cell's chunks it holds
+    private static final int MASK_WORDS = Math.max(1, CELL_SIZE * CELL_SIZE / 16);
+    private static final int STRIDE = 1 + MASK_WORDS;
 
-    private static final Map<ServerConnection, Set<ChunkKey>> lockedChunks = new HashMap<>();
-    private static final Map<ServerConnection, Set<ChunkKey>> subscribedChunks = new HashMap<>();
+    private static final short[] EMPTY = new short[0];
 
-    public static ServerConnection getOwner(String world, int cx, int cz) {
-        ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkLocks.get(key);
-            if (serverConnections != null && !serverConnections.isEmpty()) {
-                return serverConnections.get(0);
+    private static final Map<String, WorldIndex> worlds = new ConcurrentHashMap<>();
+
+    private static volatile ServerConnection[] servers = new ServerConnection[16];
+    private static final BitSet usedServerIds = new BitSet();
+
+    private static class WorldIndex {
+        // The holders of each cell, the first holder in owners is the cell's owner
+        private final LongObjectHashMap<short[]>[] owners = newArray(ChunkLock.LOCK_COUNT);
+        private final LongObjectHashMap<short[]>[] subscribers = newArray(ChunkLock.LOCK_COUNT);
+
+        @SuppressWarnings("unchecked")
+        private static LongObjectHashMap<short[]>[] newArray(int length) {
+            return (LongObjectHashMap<short[]>[]) new LongObjectHashMap<?>[length];
+        }
+
+        private WorldIndex() {
+            for (int i = 0; i < ChunkLock.LOCK_COUNT; i++) {
+                owners[i] = new LongObjectHashMap<>();
+                subscribers[i] = new LongObjectHashMap<>();
             }
         }
-        return null;
     }
 
-    public static ServerConnection getOwnerOrSubscriber(String world, int cx, int cz) {
-        ServerConnection owner = getOwner(world, cx, cz);
-        if (owner != null) {
-            return owner;
+    private static long cellKey(int cx, int cz) {
+        return ((long) (cx >> CELL_SHIFT) << 32) | ((cz >> CELL_SHIFT) & 0xFFFFFFFFL);
+    }
+
+    private static int cellX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int cellZ(long key) {
+        return (int) key;
+    }
+
+    /* the chunk's bit in a holder's bitmask */
+    private static int chunkBit(int cx, int cz) {
+        return (cx & CELL_MASK) * CELL_SIZE + (cz & CELL_MASK);
+    }
+
+    private static WorldIndex getWorld(String world) {
+        WorldIndex index = worlds.get(world);
+        if (index == null) {
+            index = worlds.computeIfAbsent(world, key -> new WorldIndex());
+        }
+        return index;
+    }
+
+    private static short getServerId(ServerConnection serverConnection) {
+        short id = serverConnection.chunkIndexId;
+        if (id >= 0) {
+            return id;
         }
 
-        ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkSubscribers.get(key);
-            if (serverConnections != null && !serverConnections.isEmpty()) {
-                return serverConnections.get(0);
+        synchronized (usedServerIds) {
+            if (serverConnection.chunkIndexId < 0) {
+                int newId = usedServerIds.nextClearBit(0);
+                if (newId > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many servers have connected");
+                }
+                if (newId >= servers.length) {
+                    servers = Arrays.copyOf(servers, servers.length * 2);
+                }
+                usedServerIds.set(newId);
+                servers[newId] = serverConnection;
+                serverConnection.chunkIndexId = (short) newId;
             }
+            return serverConnection.chunkIndexId;
         }
+    }
 
-        return null;
+    private static void releaseServerId(ServerConnection serverConnection) {
+        synchronized (usedServerIds) {
+            short id = serverConnection.chunkIndexId;
+            if (id >= 0) {
+                serverConnection.chunkIndexId = -1;
+                servers[id] = null;
+                usedServerIds.clear(id);
+            }
+        }
     }
 
-    public static ServerConnection lock(ServerConnection serverConnection, String world, int cx, int cz) {
-        return lock(serverConnection, world, cx, cz, false);
+
+    private static ServerConnection getServer(short id) {
+        return servers[id];
     }
 
-    public static ServerConnection lock(ServerConnection serverConnection, String world, int cx, int cz, boolean force) {
-        ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkLocks.computeIfAbsent(key, key2 -> {
-                synchronized (objectPool) {
-                    List<ServerConnection> list = objectPool.poll();
-                    if (list != null) {
-                        return list;
-                    }
-                }
-                return new ArrayList<>();
-            });
+    private static int slotCount(short[] holders) {
+        return holders.length / STRIDE;
+    }
+
+    private static short holderAt(short[] holders, int slot) {
+        return holders[slot * STRIDE];
+    }
 
-            if (force && serverConnections.indexOf(serverConnection) != 0) {
-                serverConnections.remove(serverConnection);
+    private static int slotOf(short[] holders, short id) {
+        for (int i = 0; i < holders.length; i += STRIDE) {
+            if (holders[i] == id) {
+                return i / STRIDE;
             }
+        }
+        return -1;
+    }
 
-            if (!serverConnections.contains(serverConnection)) {
-                if (force) {
-                    serverConnections.add(0, serverConnection);
-                } else {
-                    serverConnections.add(serverConnection);
-                }
+    private static boolean hasChunk(short[] holders, int slot, int bit) {
+        return (holders[slot * STRIDE + 1 + (bit >> 4)] & (1 << (bit & 15))) != 0;
+    }
 
-                lockedChunks.computeIfAbsent(serverConnection, k -> ConcurrentHashMap.newKeySet()).add(key);
+    private static void setChunk(short[] holders, int slot, int bit) {
+        holders[slot * STRIDE + 1 + (bit >> 4)] |= (short) (1 << (bit & 15));
+    }
 
-                if (serverConnections.size() == 1 || force) {
-                    if (chunkSubscribers.get(key) != null) {
-                        updateOwner(serverConnections.get(0), chunkSubscribers.get(key), key.world, key.x, key.z);
-                    }
-                }
+    /**
+     * @return true if the holder doesn't hold any chunk in the cell anymore
+     */
+    private static boolean clearChunk(short[] holders, int slot, int bit) {
+        holders[slot * STRIDE + 1 + (bit >> 4)] &= (short) ~(1 << (bit & 15));
+        for (int i = 1; i <= MASK_WORDS; i++) {
+            if (holders[slot * STRIDE + i] != 0) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    private static short[] addHolder(short[] holders, int slot, short id, int bit) {
+        short[] newHolders = new short[holders.length + STRIDE];
+        System.arraycopy(holders, 0, newHolders, 0, slot * STRIDE);
+        System.arraycopy(holders, slot * STRIDE, newHolders, (slot + 1) * STRIDE, holders.length - slot * STRIDE);
+        newHolders[slot * STRIDE] = id;
+        setChunk(newHolders, slot, bit);
+        return newHolders;
+    }
 
-            return serverConnections.get(0);
+    private static short[] removeHolder(short[] holders, int slot) {
+        if (holders.length == STRIDE) {
+            return EMPTY;
         }
+
+        short[] newHolders = new short[holders.length - STRIDE];
+        System.arraycopy(holders, 0, newHolders, 0, slot * STRIDE);
+        System.arraycopy(holders, (slot + 1) * STRIDE, newHolders, slot * STRIDE, holders.length - (slot + 1) * STRIDE);
+        return newHolders;
     }
 
-    public static void unlock(ServerConnection serverConnection, String world, int cx, int cz) {
-        unlock(serverConnection, new ChunkKey(world, cx, cz));
+    private static void moveToFront(short[] holders, int slot) {
+        short[] holder = Arrays.copyOfRange(holders, slot * STRIDE, (slot + 1) * STRIDE);
+        System.arraycopy(holders, 0, holders, STRIDE, slot * STRIDE);
+        System.arraycopy(holder, 0, holders, 0, STRIDE);
     }
 
-    public static void unlock(ServerConnection serverConnection, ChunkKey key) {
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkLocks.get(key);
-            if (serverConnections != null) {
-                for (int i = 0; i < serverConnections.size(); i++) {
-                    if (serverConnections.get(i) == serverConnection) {
-                        serverConnections.remove(i--);
-
-                        if (i == -1) {
-                            if (chunkSubscribers.get(key) != null) {
-                                if (serverConnections.isEmpty()) {
-                                    updateOwner(null, chunkSubscribers.get(key), key.world, key.x, key.z);
-                                } else {
-                                    updateOwner(serverConnections.get(0), chunkSubscribers.get(key), key.world, key.x, key.z);
-                                }
-                            }
-                        }
-                    }
+    private static void set(LongObjectHashMap<short[]> map, long key, short[] holders) {
+        if (holders.length == 0) {
+            map.remove(key);
+        } else {
+            map.put(key, holders);
+        }
+    }
+
+    private static void sendOwner(ServerConnection connection, String world, long key, String owner) {
+        if (CELL_SIZE == 1) {
+            connection.send(new SetChunkOwnerMessage(world, cellX(key), cellZ(key), owner));
+        } else if (connection.hasProtocolFeature(ProtocolFeatures.CELL_OWNERSHIP)) {
+            connection.send(new SetCellOwnerMessage(world, cellX(key) << CELL_SHIFT, cellZ(key) << CELL_SHIFT, CELL_SIZE, owner));
+        } else {
+            for (int x = 0; x < CELL_SIZE; x++) {
+                for (int z = 0; z < CELL_SIZE; z++) {
+                    connection.send(new SetChunkOwnerMessage(world, (cellX(key) << CELL_SHIFT) + x, (cellZ(key) << CELL_SHIFT) + z, owner));
                 }
-                if (serverConnections.isEmpty()) {
-                    chunkLocks.remove(key);
-                    synchronized (objectPool) {
-                        objectPool.add(serverConnections);
-                    }
+            }
+        }
+    }
+
+    private static void sendSubscriberAdded(ServerConnection connection, String world, long key, String subscriber) {
+        if (CELL_SIZE == 1) {
+            connection.send(new AddChunkSubscriberMessage(world, cellX(key), cellZ(key), subscriber));
+        } else if (connection.hasProtocolFeature(ProtocolFeatures.CELL_OWNERSHIP)) {
+            connection.send(new AddCellSubscriberMessage(world, cellX(key) << CELL_SHIFT, cellZ(key) << CELL_SHIFT, CELL_SIZE, subscriber));
+        } else {
+            for (int x = 0; x < CELL_SIZE; x++) {
+                for (int z = 0; z < CELL_SIZE; z++) {
+                    connection.send(new AddChunkSubscriberMessage(world, (cellX(key) << CELL_SHIFT) + x, (cellZ(key) << CELL_SHIFT) + z, subscriber));
                 }
             }
+        }
+    }
 
-            Set<ChunkKey> chunks = lockedChunks.get(serverConnection);
-            if (chunks != null) {
-                chunks.remove(key);
+    private static void sendSubscriberRemoved(ServerConnection connection, String world, long key, String subscriber) {
+        if (CELL_SIZE == 1) {
+            connection.send(new RemoveChunkSubscriberMessage(world, cellX(key), cellZ(key), subscriber));
+        } else if (connection.hasProtocolFeature(ProtocolFeatures.CELL_OWNERSHIP)) {
+            connection.send(new RemoveCellSubscriberMessage(world, cellX(key) << CELL_SHIFT, cellZ(key) << CELL_SHIFT, CELL_SIZE, subscriber));
+        } else {
+            for (int x = 0; x < CELL_SIZE; x++) {
+                for (int z = 0; z < CELL_SIZE; z++) {
+                    connection.send(new RemoveChunkSubscriberMessage(world, (cellX(key) << CELL_SHIFT) + x, (cellZ(key) << CELL_SHIFT) + z, subscriber));
+                }
             }
         }
     }
 
-    private static void updateOwner(ServerConnection ownerConnection, List<ServerConnection> serverConnections, String world, int cx, int cz) {
-        String owner = ownerConnection == null ? "" : ownerConnection.getBungeeCordName();
-        for (ServerConnection connection : serverConnections) {
-            connection.send(new SetChunkOwnerMessage(world, cx, cz, owner));
+    public static ServerConnection getOwner(String world, int cx, int cz) {
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            return getOwner(getWorld(world), lockIndex, cellKey(cx, cz));
+        } finally {
+            ChunkLock.unlock(lockIndex);
         }
     }
 
+    /* must be called while holding the chunk's lock */
+    private static ServerConnection getOwner(WorldIndex index, int lockIndex, long key) {
+        short[] owners = index.owners[lockIndex].get(key);
+        return owners == null ? null : getServer(holderAt(owners, 0));
+    }
 
-    public static void subscribe(ServerConnection serverConnection, String world, int cx, int cz) {
-        ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkSubscribers.computeIfAbsent(key, key2 -> {
-                synchronized (objectPool) {
-                    List<ServerConnection> list = objectPool.poll();
-                    if (list != null) {
-                        return list;
-                    }
-                }
-                return new ArrayList<>();
-            });
-
-            if (!serverConnections.isEmpty()) {
-                List<ServerConnection> singletonList = Collections.singletonList(serverConnection);
-                for (ServerConnection subscriber : serverConnections) {
-                    if (subscriber != serverConnection) {
-                        updateSubscriberAdd(singletonList, subscriber, world, cx, cz);
-                    }
+    public static ServerConnection getOwnerOrSubscriber(String world, int cx, int cz) {
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+
+            ServerConnection owner = getOwner(index, lockIndex, key);
+            if (owner != null) {
+                return owner;
+            }
+
+            short[] subscribers = index.subscribers[lockIndex].get(key);
+            return subscribers == null ? null : getServer(holderAt(subscribers, 0));
+        } finally {
+            ChunkLock.unlock(lockIndex);
+        }
+    }
+
+    public static ServerConnection lock(ServerConnection serverConnection, String world, int cx, int cz) {
+        return lock(serverConnection, world, cx, cz, false);
+    }
+
+    public static ServerConnection lock(ServerConnection serverConnection, String world, int cx, int cz, boolean force) {
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+            int bit = chunkBit(cx, cz);
+            short id = getServerId(serverConnection);
+
+            short[] owners = index.owners[lockIndex].get(key);
+            if (owners == null) {
+                owners = EMPTY;
+            }
+
+            int slot = slotOf(owners, id);
+            boolean ownerChanged = false;
+            if (slot < 0) {
+                owners = addHolder(owners, force ? 0 : slotCount(owners), id, bit);
+                index.owners[lockIndex].put(key, owners);
+                ownerChanged = force || slotCount(owners) == 1;
+            } else {
+                setChunk(owners, slot, bit);
+                if (force && slot > 0) {
+                    moveToFront(owners, slot);
+                    ownerChanged = true;
                 }
             }
 
-            if (!serverConnections.contains(serverConnection)) {
-                updateSubscriberAdd(serverConnections, serverConnection, world, cx, cz);
-                serverConnections.add(serverConnection);
-                subscribedChunks.computeIfAbsent(serverConnection, k -> ConcurrentHashMap.newKeySet()).add(key);
+            if (ownerChanged) {
+                updateOwner(getServer(holderAt(owners, 0)), index.subscribers[lockIndex].get(key), world, key);
             }
 
-            if (chunkLocks.get(key) != null && !chunkLocks.get(key).isEmpty()) {
-                updateOwner(chunkLocks.get(key).get(0), Collections.singletonList(serverConnection), key.world, key.x, key.z);
+            return getServer(holderAt(owners, 0));
+        } finally {
+            ChunkLock.unlock(lockIndex);
+        }
+    }
+
+    public static void unlock(ServerConnection serverConnection, String world, int cx, int cz) {
+        short id = serverConnection.chunkIndexId;
+        if (id < 0) {
+            return;
+        }
+
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+            short[] owners = index.owners[lockIndex].get(key);
+            int slot = owners == null ? -1 : slotOf(owners, id);
+            if (slot >= 0 && clearChunk(owners, slot, chunkBit(cx, cz))) {
+                removeOwner(index, lockIndex, world, key, slot);
             }
+        } finally {
+            ChunkLock.unlock(lockIndex);
         }
     }
 
-    public static void unsubscribe(ServerConnection serverConnection, String world, int cx, int cz) {
-        unsubscribe(serverConnection, new ChunkKey(world, cx, cz));
+    public static void unlock(ServerConnection serverConnection, ChunkKey key) {
+        unlock(serverConnection, key.world, key.x, key.z);
     }
 
-    public static void unsubscribe(ServerConnection serverConnection, ChunkKey key) {
-        synchronized (ChunkLock.getChunkLock(key)) {
-            List<ServerConnection> serverConnections = chunkSubscribers.get(key);
-            if (serverConnections != null) {
-                if (serverConnections.remove(serverConnection)) {
-                    updateSubscriberRemoved(serverConnections, serverConnection, key.world, key.x, key.z);
+    /* must be called while holding the chunk's lock */
+    private static void removeOwner(WorldIndex index, int lockIndex, String world, long key, int slot) {
+        short[] owners = removeHolder(index.owners[lockIndex].get(key), slot);
+        set(index.owners[lockIndex], key, owners);
+
+        if (slot == 0) {
+            updateOwner(owners.length == 0 ? null : getServer(holderAt(owners, 0)), index.subscribers[lockIndex].get(key), world, key);
+        }
+    }
+
+    private static void updateOwner(ServerConnection ownerConnection, short[] subscribers, String world, long key) {
+        if (subscribers == null) {
+            return;
+        }
+
+        String owner = ownerConnection == null ? "" : ownerConnection.getBungeeCordName();
+        for (int slot = 0; slot < slotCount(subscribers); slot++) {
+            sendOwner(getServer(holderAt(subscribers, slot)), world, key, owner);
+        }
+    }
+
+    public static void subscribe(ServerConnection serverConnection, String world, int cx, int cz) {
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+            short id = getServerId(serverConnection);
+
+            short[] subscribers = index.subscribers[lockIndex].get(key);
+            if (subscribers == null) {
+                subscribers = EMPTY;
+            }
+
+            // Tell the new subscriber about the existing ones, only for this chunk as that's the one it has loaded
+            for (int slot = 0; slot < slotCount(subscribers); slot++) {
+                if (holderAt(subscribers, slot) != id) {
+                    serverConnection.send(new AddChunkSubscriberMessage(world, cx, cz, getServer(holderAt(subscribers, slot)).getBungeeCordName()));
                 }
-                if (serverConnections.isEmpty()) {
-                    chunkSubscribers.remove(key);
-                    synchronized (objectPool) {
-                        objectPool.add(serverConnections);
-                    }
+            }
+
+            int slot = slotOf(subscribers, id);
+            if (slot < 0) {
+                // And the existing ones about the new subscriber
+                String subscriberName = serverConnection.getBungeeCordName();
+                for (int i = 0; i < slotCount(subscribers); i++) {
+                    sendSubscriberAdded(getServer(holderAt(subscribers, i)), world, key, subscriberName);
                 }
+
+                index.subscribers[lockIndex].put(key, addHolder(subscribers, slotCount(subscribers), id, chunkBit(cx, cz)));
+            } else {
+                setChunk(subscribers, slot, chunkBit(cx, cz));
             }
 
-            Set<ChunkKey> chunks = subscribedChunks.get(serverConnection);
-            if (chunks != null) {
-                chunks.remove(key);
+            ServerConnection owner = getOwner(index, lockIndex, key);
+            if (owner != null) {
+                serverConnection.send(new SetChunkOwnerMessage(world, cx, cz, owner.getBungeeCordName()));
             }
+        } finally {
+            ChunkLock.unlock(lockIndex);
         }
     }
 
-    private static void updateSubscriberAdd(List<ServerConnection> serverConnections, ServerConnection serverConnection, String world, int cx, int cz) {
-        String subscriber = serverConnection.getBungeeCordName();
-        for (ServerConnection connection : serverConnections) {
-            if (connection != serverConnection) {
-                connection.send(new AddChunkSubscriberMessage(world, cx, cz, subscriber));
+    public static void unsubscribe(ServerConnection serverConnection, String world, int cx, int cz) {
+        short id = serverConnection.chunkIndexId;
+        if (id < 0) {
+            return;
+        }
+
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+            short[] subscribers = index.subscribers[lockIndex].get(key);
+            int slot = subscribers == null ? -1 : slotOf(subscribers, id);
+            if (slot >= 0 && clearChunk(subscribers, slot, chunkBit(cx, cz))) {
+                removeSubscriber(index, lockIndex, world, key, slot, id);
             }
+        } finally {
+            ChunkLock.unlock(lockIndex);
         }
     }
 
-    private static void updateSubscriberRemoved(List<ServerConnection> serverConnections, ServerConnection serverConnection, String world, int cx, int cz) {
-        String unsubscriber = serverConnection.getBungeeCordName();
-        for (ServerConnection connection : serverConnections) {
-            connection.send(new RemoveChunkSubscriberMessage(world, cx, cz, unsubscriber));
+    public static void unsubscribe(ServerConnection serverConnection, ChunkKey key) {
+        unsubscribe(serverConnection, key.world, key.x, key.z);
+    }
+
+    /* must be called while holding the chunk's lock */
+    private static void removeSubscriber(WorldIndex index, int lockIndex, String world, long key, int slot, short id) {
+        short[] subscribers = removeHolder(index.subscribers[lockIndex].get(key), slot);
+        set(index.subscribers[lockIndex], key, subscribers);
+
+        String unsubscriber = getServer(id).getBungeeCordName();
+        for (int i = 0; i < slotCount(subscribers); i++) {
+            sendSubscriberRemoved(getServer(holderAt(subscribers, i)), world, key, unsubscriber);
         }
     }
 
     public static void syncSubscribers(ServerConnection serverConnection, String world, int cx, int cz) {
-        ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (ChunkLock.getChunkLock(key)) {
-            if (!chunkSubscribers.containsKey(key) || !chunkSubscribers.get(key).contains(serverConnection)) {
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            WorldIndex index = getWorld(world);
+            long key = cellKey(cx, cz);
+            int bit = chunkBit(cx, cz);
+            short id = getServerId(serverConnection);
+
+            short[] subscriberIds = index.subscribers[lockIndex].get(key);
+            int slot = subscriberIds == null ? -1 : slotOf(subscriberIds, id);
+            if (slot < 0 || !hasChunk(subscriberIds, slot, bit)) {
                 subscribe(serverConnection, world, cx, cz);
             }
 
-            String[] subscribers = chunkSubscribers.get(key).stream().filter(subscriber -> subscriber != serverConnection).map(ServerConnection::getBungeeCordName).toArray(String[]::new);
+            subscriberIds = index.subscribers[lockIndex].get(key);
+            String[] subscribers = new String[slotCount(subscriberIds) - 1];
+            int i = 0;
+            for (int j = 0; j < slotCount(subscriberIds); j++) {
+                if (holderAt(subscriberIds, j) != id) {
+                    subscribers[i++] = getServer(holderAt(subscriberIds, j)).getBungeeCordName();
+                }
+            }
 
-            serverConnection.send(new ChunkSubscribersSyncMessage(world, cx, cz, chunkLocks.get(key) != null && !chunkLocks.get(key).isEmpty() ? chunkLocks.get(key).get(0).getBungeeCordName() : "", subscribers));
+            ServerConnection owner = getOwner(index, lockIndex, key);
+            serverConnection.send(new ChunkSubscribersSyncMessage(world, cx, cz, owner != null ? owner.getBungeeCordName() : "", subscribers));
+        } finally {
+            ChunkLock.unlock(lockIndex);
         }
     }
 
     public static void unsubscribeAndUnlockAll(ServerConnection serverConnection) {
-        Set<ChunkKey> lockedChunks = ChunkSubscriptionManager.lockedChunks.remove(serverConnection);
-        if (lockedChunks != null) {
-            lockedChunks.forEach(chunk -> unlock(serverConnection, chunk));
+        short id = serverConnection.chunkIndexId;
+        if (id < 0) {
+            return;
         }
-        Set<ChunkKey> subscribedChunks = ChunkSubscriptionManager.subscribedChunks.remove(serverConnection);
-        if (subscribedChunks != null) {
-            subscribedChunks.forEach(chunk -> unsubscribe(serverConnection, chunk));
+
+        for (Map.Entry<String, WorldIndex> world : worlds.entrySet()) {
+            WorldIndex index = world.getValue();
+            for (int lockIndex = 0; lockIndex < ChunkLock.LOCK_COUNT; lockIndex++) {
+                ChunkLock.lock(lockIndex);
+                try {
+                    for (long key : findCells(index.owners[lockIndex], id)) {
+                        removeOwner(index, lockIndex, world.getKey(), key, slotOf(index.owners[lockIndex].get(key), id));
+                    }
+                    for (long key : findCells(index.subscribers[lockIndex], id)) {
+                        removeSubscriber(index, lockIndex, world.getKey(), key, slotOf(index.subscribers[lockIndex].get(key), id), id);
+                    }
+                } finally {
+                    ChunkLock.unlock(lockIndex);
+                }
+            }
         }
+
+        releaseServerId(serverConnection);
+    }
+
+    private static long[] findCells(LongObjectHashMap<short[]> map, short id) {
+        long[][] cells = { new long[8] };
+        int[] count = { 0 };
+        map.forEach((key, holders) -> {
+            if (slotOf(holders, id) >= 0) {
+                if (count[0] == cells[0].length) {
+                    cells[0] = Arrays.copyOf(cells[0], count[0] * 2);
+                }
+                cells[0][count[0]++] = key;
+            }
+        });
+        return Arrays.copyOf(cells[0], count[0]);
     }
 
     public static List<ServerConnection> getSubscribers(String world, int cx, int cz) {
-        return chunkSubscribers.getOrDefault(new ChunkKey(world, cx, cz), Collections.emptyList());
+        int lockIndex = ChunkLock.getLockIndex(world, cx, cz);
+        ChunkLock.lock(lockIndex);
+        try {
+            short[] subscribers = getWorld(world).subscribers[lockIndex].get(cellKey(cx, cz));
+            if (subscribers == null) {
+                return Collections.emptyList();
+            }
+
+            ServerConnection[] connections = new ServerConnection[slotCount(subscribers)];
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = getServer(holderAt(subscribers, i));
+            }
+            return Arrays.asList(connections);
+        } finally {
+            ChunkLock.unlock(lockIndex);
+        }
     }
 }
@@ -1,9 +1,21 @@
 package puregero.multipaper.server;
 
+import puregero.multipaper.mastermessagingprotocol.CompressionStats;
+import puregero.multipaper.mastermessagingprotocol.FlushCounter;
+import puregero.multipaper.mastermessagingprotocol.RequestStats;
+import puregero.multipaper.server.util.ChunkCache;
+import puregero.multipaper.server.util.ChunkLock;
+import puregero.multipaper.server.util.EntitiesLock;
+import puregero.multipaper.server.util.IOScheduler;
+import puregero.multipaper.server.util.RegionFileCache;
+
 import java.util.Scanner;
 
 public class CommandLineInput {
 
+    private long lastStatsTime = System.nanoTime();
+    private long lastFlushes = 0;
+
     public boolean run() {
         Scanner scanner = new Scanner(System.in);
 
@@ -27,8 +39,12 @@ public class CommandLineInput {
                         System.out.println("    " + element);
                     }
                 }
+            } else if (line.equalsIgnoreCase("stats")) {
+                printStats();
+            } else if (line.toLowerCase().startsWith("pin ") || line.toLowerCase().startsWith("unpin ")) {
+                pinRegion(line.split(" "));
             } else {
-                System.out.println("Unknown command, use 'shutdown' to shutdown all servers or 'exit' to stop just this master server");
+                System.out.println("Unknown command, use 'shutdown' to shutdown all servers, 'exit' to stop just this master server, 'stats' to print statistics or 'pin'/'unpin' to keep a region file open");
             }
         }
 
@@ -36,4 +52,73 @@ public class CommandLineInput {
         return false;
     }
 
+    private void pinRegion(String[] args) {
+        if (args.length != 5) {
+            System.out.println("Usage: " + args[0] + " <world> <path> <regionX> <regionZ>");
+            return;
+        }
+
+        RegionFileCache.RegionKey key;
+        try {
+            key = new RegionFileCache.RegionKey(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: " + args[0] + " <world> <path> <regionX> <regionZ>");
+            return;
+        }
+
+        if (args[0].equalsIgnoreCase("pin")) {
+            RegionFileCache.pinRegion(key);
+            System.out.println("Pinned " + key.getFile());
+        } else if (RegionFileCache.unpinRegion(key)) {
+            System.out.println("Unpinned " + key.getFile());
+        } else {
+            System.out.println(key.getFile() + " is not pinned");
+        }
+    }
+
+    private void printStats() {
+        System.out.println("Region file cache: " + RegionFileCache.getCachedCount() + " cached, "
+                + RegionFileCache.getPinnedCount() + " pinned, "
+                + RegionFileCache.getOpenHandles() + " open handles, "
+                + RegionFileCache.getHits() + " hits, "
+                + RegionFileCache.getMisses() + " misses, "
+                + RegionFileCache.getEvictions() + " evictions");
+        System.out.println(ChunkCache.getStats());
+        System.out.println(PlayerDataCache.getStats());
+        System.out.println(FileLocker.getStats());
+        System.out.println(DataStorage.getStats());
+        System.out.println(DataStorageWatchers.getStats());
+        System.out.println(ChunkLock.getStats());
+        System.out.println(EntitiesLock.getStats());
+
+        for (IOScheduler scheduler : IOScheduler.getSchedulers()) {
+            System.out.println(scheduler);
+        }
+
+        for (MessageLane lane : MessageLane.values()) {
+            System.out.println(lane);
+        }
+
+        long now = System.nanoTime();
+        long messages = FlushCounter.getMessages();
+        long flushes = FlushCounter.getFlushes();
+        System.out.println(String.format("Network: %d messages, %.1fMB, %d flushes, %.1f messages per flush, %.1f flushes/s since the last stats",
+                messages, FlushCounter.getBytes() / 1024.0 / 1024.0, flushes, flushes == 0 ? 0 : (double) messages / flushes,
+                (flushes - lastFlushes) / ((now - lastStatsTime) / 1e9)));
+        lastStatsTime = now;
+        lastFlushes = flushes;
+
+        for (ServerConnection connection : ServerConnection.getConnections()) {
+            System.out.println(connection.getOutboundQueueStats());
+        }
+
+        for (String line : CompressionStats.getStats()) {
+            System.out.println("Compression: " + line);
+        }
+
+        for (String line : RequestStats.getStats()) {
+            System.out.println("Requests: " + line);
+        }
+    }
+
 }
@@ -0,0 +1,675 @@
+package puregero.multipaper.server;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.BatchDataStorageMessage.Operation;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataStorageWatchMessageReply;
+import puregero.multipaper.server.util.IOScheduler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * The key-value store behind CallDataStorageMessage. Values are kept in a
+ * sorted map so that LIST only visits the keys with the prefix, and every
+ * update is a compare-and-set so that concurrent ADDs never block each other.
+ *
+ * Updates are appended to a write-ahead log in the datastorage directory by a
+ * single writer, which batches whatever has been queued since it last ran.
+ * Every value has a version one higher than the value it replaced, so
+ * replaying the logs keeps the latest value of each key no matter what order
+ * concurrent updates were logged in. Once the log outgrows the snapshot it's
+ * compacted: a new log is started, the map is written to a new snapshot and
+ * the old logs are deleted. Deleted keys are kept as tombstones until the
+ * next restart, so that an older value in a log can't come back.
+ *
+ * A batch holds the write lock of a read-write lock while it runs, and every
+ * other operation holds the read lock, so they never see half a batch and
+ * single-key operations still run concurrently with each other. A batch is
+ * logged as one record, so a crash can't keep only part of it either.
+ *
+ * Servers watching a prefix of a key are sent every update to it, see
+ * DataStorageWatchers.
+ *
+ * An existing datastorage.yml is imported the first time the store is loaded.
+ */
+public class DataStorage {
+
+    private static final File DIRECTORY = new File(System.getProperty("datastorage.directory", "datastorage"));
+    private static final File SNAPSHOT = new File(DIRECTORY, "snapshot.dat");
+    private static final long MIN_COMPACTION_BYTES = Long.getLong("datastorage.compact.min.mb", 4L) * 1024 * 1024;
+    private static final int MAGIC = 0x4d504453;
+    private static final int BATCH_RECORD = -2; // in place of the key length
+
+    private record Value(String value, long version) {} // a null value is a tombstone
+
+    private static final ConcurrentSkipListMap<String, Value> values = new ConcurrentSkipListMap<>();
+    private static final Queue<byte[]> unwritten = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private static final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private static volatile boolean loaded = false;
+    private static final Object loadLock = new Object();
+    // Held by the log writer, which may be busy writing a snapshot, so nothing on an event loop may take it
+    private static final Object logLock = new Object();
+
+    // Only accessed while holding logLock
+    private static long generation = 0;
+    private static FileOutputStream logFile;
+    private static DataOutputStream log;
+    private static long logBytes = 0;
+    private static long snapshotBytes = 0;
+    private static long compactions = 0;
+
+    private static final LongAdder updates = new LongAdder();
+    private static final LongAdder casRetries = new LongAdder();
+    private static final LongAdder batches = new LongAdder();
+    private static final LongAdder abortedBatches = new LongAdder();
+
+    private DataStorage() {
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    public static String get(String key) {
+        batchLock.readLock().lock();
+        try {
+            return getValue(key);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    private static String getValue(String key) {
+        Value value = values.get(key);
+        return value == null ? null : value.value;
+    }
+
+    /**
+     * @return Every key starting with the prefix and its value
+     */
+    public static Map<String, String> list(String prefix) {
+        Map<String, String> list = new HashMap<>();
+        batchLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Value> entry : values.tailMap(prefix).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+
+                if (entry.getValue().value != null) {
+                    list.put(entry.getKey(), entry.getValue().value);
+                }
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        return list;
+    }
+
+    /**
+     * @return Every key starting with the prefix with its value and version,
+     *         including the keys that have been removed since the restart
+     */
+    public static List<DataStorageWatchMessageReply.Entry> listVersions(String prefix) {
+        List<DataStorageWatchMessageReply.Entry> list = new ArrayList<>();
+        batchLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Value> entry : values.tailMap(prefix).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+
+                list.add(new DataStorageWatchMessageReply.Entry(entry.getKey(), entry.getValue().value, entry.getValue().version));
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+        return list;
+    }
+
+    /**
+     * @param value The new value, or null to remove the key
+     */
+    public static String set(String key, String value) {
+        batchLock.readLock().lock();
+        try {
+            while (true) {
+                Value old = values.get(key);
+                if (old == null && value == null) {
+                    return null;
+                }
+
+                Value updated = new Value(value, old == null ? 1 : old.version + 1);
+                if (old == null ? values.putIfAbsent(key, updated) == null : values.replace(key, old, updated)) {
+                    log(key, updated);
+                    DataStorageWatchers.onUpdate(key, value, updated.version);
+                    return value;
+                }
+                casRetries.increment();
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add the value to the key's value if they're both numbers, otherwise
+     * set the key to the value.
+     * @return The new value
+     */
+    public static String add(String key, String value) {
+        batchLock.readLock().lock();
+        try {
+            while (true) {
+                Value old = values.get(key);
+                String result = addValues(old == null ? null : old.value, value);
+
+                Value updated = new Value(result, old == null ? 1 : old.version + 1);
+                if (old == null ? values.putIfAbsent(key, updated) == null : values.replace(key, old, updated)) {
+                    log(key, updated);
+                    DataStorageWatchers.onUpdate(key, result, updated.version);
+                    return result;
+                }
+                casRetries.increment();
+            }
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Run the operations as one transaction. Each operation sees the changes
+     * made by the ones before it. If a COMPARE_AND_SET finds a different
+     * value, nothing is changed and the results are the values every key had
+     * beforehand instead.
+     * @param results Filled with the result of each operation
+     * @return Whether the changes were made
+     */
+    public static boolean batch(List<Operation> operations, String[] results) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        List<Map.Entry<String, Value>> updated = new ArrayList<>();
+
+        batchLock.writeLock().lock();
+        try {
+            batches.increment();
+
+            boolean aborted = false;
+            for (int i = 0; i < operations.size() && !aborted; i++) {
+                Operation operation = operations.get(i);
+                String current = changes.containsKey(operation.key) ? changes.get(operation.key) : getValue(operation.key);
+                switch (operation.action) {
+                    case GET -> results[i] = current;
+                    case SET -> changes.put(operation.key, results[i] = operation.value);
+                    case ADD -> changes.put(operation.key, results[i] = addValues(current, operation.value));
+                    case COMPARE_AND_SET -> {
+                        if (Objects.equals(current, operation.expected)) {
+                            changes.put(operation.key, results[i] = operation.value);
+                        } else {
+                            aborted = true;
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown action " + operation.action);
+                }
+            }
+
+            if (aborted) {
+                abortedBatches.increment();
+                for (int i = 0; i < operations.size(); i++) {
+                    results[i] = getValue(operations.get(i).key);
+                }
+                return false;
+            }
+
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                Value old = values.get(change.getKey());
+                if (old == null && change.getValue() == null) {
+                    continue;
+                }
+
+                Value value = new Value(change.getValue(), old == null ? 1 : old.version + 1);
+                values.put(change.getKey(), value);
+                updated.add(Map.entry(change.getKey(), value));
+            }
+
+            if (!updated.isEmpty()) {
+                logBatch(updated);
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+
+        for (Map.Entry<String, Value> entry : updated) {
+            DataStorageWatchers.onUpdate(entry.getKey(), entry.getValue().value, entry.getValue().version);
+        }
+        return true;
+    }
+
+    private static String addValues(String A, String B) {
+        if (A == null) {
+            return B;
+        }
+
+        try {
+            long a = Long.parseLong(A);
+            long b = Long.parseLong(B);
+            return Long.toString(a + b);
+        } catch (NumberFormatException ignored) {}
+
+        try {
+            double a = Double.parseDouble(A);
+            double b = Double.parseDouble(B);
+            return Double.toString(a + b);
+        } catch (NumberFormatException ignored) {}
+
+        return B;
+    }
+
+    private static void log(String key, Value value) {
+        updates.increment();
+        queueRecord(encode(key, value));
+    }
+
+    private static void logBatch(List<Map.Entry<String, Value>> batch) {
+        updates.add(batch.size());
+        queueRecord(encodeBatch(batch));
+    }
+
+    private static void queueRecord(byte[] record) {
+        unwritten.add(record);
+        if (writeScheduled.compareAndSet(false, true)) {
+            IOScheduler.FILE.execute(DataStorage::writeLog);
+        }
+    }
+
+    private static void writeLog() {
+        try {
+            synchronized (logLock) {
+                drainToLog();
+                if (logBytes > Math.max(MIN_COMPACTION_BYTES, snapshotBytes)) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeScheduled.set(false);
+            if (!unwritten.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+                IOScheduler.FILE.execute(DataStorage::writeLog);
+            }
+        }
+    }
+
+    /* must be called while holding logLock */
+    private static void drainToLog() throws IOException {
+        byte[] record;
+        while ((record = unwritten.poll()) != null) {
+            log.write(record);
+            logBytes += record.length;
+        }
+        log.flush();
+    }
+
+    /* must be called while holding logLock */
+    private static void compact() throws IOException {
+        // Everything logged so far is already in the map, so the snapshot will contain it
+        DataOutputStream oldLog = log;
+        openLog(generation + 1);
+        oldLog.close();
+
+        writeSnapshot();
+        deleteOldLogs();
+        compactions++;
+    }
+
+    /* must be called while holding logLock */
+    private static void openLog(long newGeneration) throws IOException {
+        generation = newGeneration;
+        logFile = new FileOutputStream(new File(DIRECTORY, generation + ".log"), true);
+        log = new DataOutputStream(new BufferedOutputStream(logFile));
+        logBytes = 0;
+    }
+
+    /* must be called while holding logLock */
+    private static void writeSnapshot() throws IOException {
+        // A batch that's half applied to the map could otherwise end up half in the snapshot, copy the
+        // entries so that batches only wait for the copy and not for the disk
+        List<Map.Entry<String, Value>> entries;
+        batchLock.readLock().lock();
+        try {
+            entries = new ArrayList<>(values.entrySet());
+        } finally {
+            batchLock.readLock().unlock();
+        }
+
+        File tempFile = File.createTempFile("snapshot.dat.", ".tmp", DIRECTORY);
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            for (Map.Entry<String, Value> entry : entries) {
+                out.write(encode(entry.getKey(), entry.getValue()));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        try {
+            Files.move(tempFile.toPath(), SNAPSHOT.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), SNAPSHOT.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        snapshotBytes = SNAPSHOT.length();
+    }
+
+    /* must be called while holding logLock */
+    private static void deleteOldLogs() {
+        for (long logGeneration : getLogGenerations()) {
+            if (logGeneration < generation) {
+                new File(DIRECTORY, logGeneration + ".log").delete();
+            }
+        }
+    }
+
+    private static long[] getLogGenerations() {
+        File[] files = DIRECTORY.listFiles((dir, name) -> name.matches("[0-9]+\\.log"));
+        if (files == null) {
+            return new long[0];
+        }
+
+        long[] generations = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            generations[i] = Long.parseLong(files[i].getName().substring(0, files[i].getName().length() - 4));
+        }
+        Arrays.sort(generations);
+        return generations;
+    }
+
+    private static byte[] encode(String key, Value value) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            writeEntry(payload, key, value);
+            return encodeRecord(payloadBytes.toByteArray());
+        } catch (IOException e) {
+            // Unreachable, we're writing to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeBatch(List<Map.Entry<String, Value>> batch) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            payload.writeInt(BATCH_RECORD);
+            payload.writeInt(batch.size());
+            for (Map.Entry<String, Value> entry : batch) {
+                writeEntry(payload, entry.getKey(), entry.getValue());
+            }
+            return encodeRecord(payloadBytes.toByteArray());
+        } catch (IOException e) {
+            // Unreachable, we're writing to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Value value) throws IOException {
+        writeString(out, key);
+        out.writeLong(value.version);
+        writeString(out, value.value);
+    }
+
+    private static byte[] encodeRecord(byte[] bytes) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(bytes.length + 8);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+            record.writeInt((int) crc.getValue());
+            return recordBytes.toByteArray();
+        } catch (IOException e) {
+            // Unreachable, we're writing to memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return readString(in, in.readInt());
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Apply every record in the stream, stopping at a record that was only
+     * partly written.
+     */
+    private static void replay(DataInputStream in, File file) throws IOException {
+        while (true) {
+            byte[] payload;
+            int expectedCrc;
+            try {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new EOFException();
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                expectedCrc = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != expectedCrc) {
+                System.err.println("Ignoring the rest of " + file + ", it has a corrupt record");
+                return;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            int keyLength = record.readInt();
+            if (keyLength == BATCH_RECORD) {
+                int count = record.readInt();
+                for (int i = 0; i < count; i++) {
+                    replayEntry(record, record.readInt());
+                }
+            } else {
+                replayEntry(record, keyLength);
+            }
+        }
+    }
+
+    private static void replayEntry(DataInputStream record, int keyLength) throws IOException {
+        String key = readString(record, keyLength);
+        long version = record.readLong();
+        String value = readString(record);
+
+        Value existing = values.get(key);
+        if (existing == null || version > existing.version) {
+            values.put(key, new Value(value, version));
+        }
+    }
+
+    /**
+     * Load the snapshot and replay the logs, then start a fresh log. Returns
+     * straight away without taking any lock once it has been loaded.
+     */
+    public static void load() {
+        if (loaded) {
+            return;
+        }
+
+        synchronized (loadLock) {
+            if (!loaded) {
+                loadNow();
+            }
+        }
+    }
+
+    /* must be called while holding loadLock */
+    private static void loadNow() {
+        try {
+            DIRECTORY.mkdirs();
+
+            long snapshotGeneration = 0;
+            if (SNAPSHOT.isFile()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(SNAPSHOT)))) {
+                    if (in.readInt() != MAGIC) {
+                        throw new IOException(SNAPSHOT + " is not a data storage snapshot");
+                    }
+                    snapshotGeneration = in.readLong();
+                    replay(in, SNAPSHOT);
+                }
+            }
+
+            long[] logGenerations = getLogGenerations();
+            long lastGeneration = snapshotGeneration;
+            for (long logGeneration : logGenerations) {
+                if (logGeneration >= snapshotGeneration) {
+                    File file = new File(DIRECTORY, logGeneration + ".log");
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                        replay(in, file);
+                    }
+                    lastGeneration = Math.max(lastGeneration, logGeneration);
+                }
+            }
+
+            File importedYaml = null;
+            if (!SNAPSHOT.isFile() && logGenerations.length == 0) {
+                importedYaml = importYaml();
+            }
+
+            // No log mentions a key from before this restart once we've written a snapshot, so the tombstones can go
+            values.values().removeIf(value -> value.value == null);
+
+            synchronized (logLock) {
+                openLog(lastGeneration + 1);
+                writeSnapshot();
+                deleteOldLogs();
+            }
+
+            if (importedYaml != null) {
+                System.out.println("Imported " + values.size() + " keys from " + importedYaml + " into " + DIRECTORY + ", keeping the old file as " + importedYaml.getName() + ".migrated");
+                importedYaml.renameTo(new File(importedYaml.getPath() + ".migrated"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(DataStorage::close, "datastorage-saver"));
+        loaded = true;
+    }
+
+    /**
+     * @return The file that was imported, or null if there wasn't one
+     */
+    private static File importYaml() throws IOException {
+        File file = new File("datastorage.yml");
+
+        // Who called it .yaml... (backwards compatibility)
+        if (!file.isFile()) {
+            file = new File("datastorage.yaml");
+        }
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Map<?, ?> yaml;
+        try (FileInputStream in = new FileInputStream(file)) {
+            yaml = new Yaml(new SafeConstructor()).load(in);
+        }
+
+        if (yaml != null) {
+            for (Map.Entry<?, ?> entry : yaml.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null && !(entry.getValue() instanceof Map) && !(entry.getValue() instanceof Iterable)) {
+                    values.put(entry.getKey().toString(), new Value(entry.getValue().toString(), 1));
+                }
+            }
+        }
+
+        return file;
+    }
+
+    /* wait for the log writer, then close the log and forget everything in memory so that load() replays it again, for tests */
+    static void unload() {
+        synchronized (loadLock) {
+            if (!loaded) {
+                return;
+            }
+
+            while (writeScheduled.get()) {
+                Thread.onSpinWait();
+            }
+
+            synchronized (logLock) {
+                try {
+                    drainToLog();
+                    log.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                log = null;
+                logFile = null;
+            }
+
+            values.clear();
+            loaded = false;
+        }
+    }
+
+    private static void close() {
+        synchronized (logLock) {
+            if (log == null) {
+                return;
+            }
+
+            try {
+                drainToLog();
+                logFile.getFD().sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static String getStats() {
+        synchronized (logLock) {
+            return String.format("Data storage: %d keys, %d updates, %d CAS retries, %d batches (%d aborted), %.1fKB log, %.1fKB snapshot, %d compactions",
+                    values.size(), updates.sum(), casRetries.sum(), batches.sum(), abortedBatches.sum(),
+                    logBytes / 1024.0, snapshotBytes / 1024.0, compactions);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package puregero.multipaper.server;
+
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataStorageUpdateMessage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Which servers are watching which data storage key prefixes. The prefixes
+ * are indexed by a trie, so finding the watchers of a changed key only
+ * visits the prefixes of that key instead of every watched prefix.
+ */
+public class DataStorageWatchers {
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final Set<ServerConnection> watchers = new HashSet<>();
+
+        private boolean isEmpty() {
+            return children.isEmpty() && watchers.isEmpty();
+        }
+    }
+
+    private static final Node root = new Node();
+    private static final Map<ServerConnection, Set<String>> watchedPrefixes = new HashMap<>();
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static volatile boolean anyWatchers = false;
+
+    private DataStorageWatchers() {
+    }
+
+    public static void watch(ServerConnection connection, String prefix) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), key -> new Node());
+            }
+            node.watchers.add(connection);
+            watchedPrefixes.computeIfAbsent(connection, key -> new HashSet<>()).add(prefix);
+            anyWatchers = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static void unwatch(ServerConnection connection, String prefix) {
+        lock.writeLock().lock();
+        try {
+            Set<String> prefixes = watchedPrefixes.get(connection);
+            if (prefixes != null && prefixes.remove(prefix)) {
+                if (prefixes.isEmpty()) {
+                    watchedPrefixes.remove(connection);
+                }
+                remove(root, prefix, 0, connection);
+                anyWatchers = !watchedPrefixes.isEmpty();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static void unwatchAll(ServerConnection connection) {
+        lock.writeLock().lock();
+        try {
+            Set<String> prefixes = watchedPrefixes.remove(connection);
+            if (prefixes != null) {
+                for (String prefix : prefixes) {
+                    remove(root, prefix, 0, connection);
+                }
+                anyWatchers = !watchedPrefixes.isEmpty();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* remove the watcher and prune the nodes that are no longer needed, must be called while holding the write lock */
+    private static void remove(Node node, String prefix, int depth, ServerConnection connection) {
+        if (depth == prefix.length()) {
+            node.watchers.remove(connection);
+            return;
+        }
+
+        Node child = node.children.get(prefix.charAt(depth));
+        if (child != null) {
+            remove(child, prefix, depth + 1, connection);
+            if (child.isEmpty()) {
+                node.children.remove(prefix.charAt(depth));
+            }
+        }
+    }
+
+    /**
+     * Tell every server watching a prefix of the key about its new value.
+     * A server watching several prefixes of the key is only told once.
+     */
+    public static void onUpdate(String key, String value, long version) {
+        if (!anyWatchers) {
+            return;
+        }
+
+        Set<ServerConnection> watchers = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            watchers.addAll(node.watchers);
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.children.get(key.charAt(i));
+                if (node != null) {
+                    watchers.addAll(node.watchers);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!watchers.isEmpty()) {
+            DataStorageUpdateMessage message = new DataStorageUpdateMessage(key, value, version);
+            for (ServerConnection watcher : watchers) {
+                watcher.send(message);
+            }
+        }
+    }
+
+    public static String getStats() {
+        lock.readLock().lock();
+        try {
+            int prefixes = 0;
+            for (Set<String> watched : watchedPrefixes.values()) {
+                prefixes += watched.size();
+            }
+            return String.format("Data storage watchers: %d servers watching %d prefixes", watchedPrefixes.size(), prefixes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
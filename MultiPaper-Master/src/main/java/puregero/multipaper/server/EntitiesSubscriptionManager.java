@@ -14,15 +14,19 @@ public class EntitiesSubscriptionManager {
     private static final Queue<List<ServerConnection>> objectPool = new LinkedList<>();
 
     private static final Map<ChunkKey, List<ServerConnection>> chunkSubscribers = new ConcurrentHashMap<>();
-    private static final Map<ServerConnection, HashSet<ChunkKey>> subscribedChunks = new HashMap<>();
+    private static final Map<ServerConnection, Set<ChunkKey>> subscribedChunks = new ConcurrentHashMap<>();
 
     public static ServerConnection getSubscriber(String world, int cx, int cz) {
         ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (EntitiesLock.getEntitiesLock(key)) {
+        int lockIndex = EntitiesLock.getLockIndex(world, cx, cz);
+        EntitiesLock.lock(lockIndex);
+        try {
             List<ServerConnection> serverConnections = chunkSubscribers.get(key);
             if (serverConnections != null && !serverConnections.isEmpty()) {
                 return serverConnections.get(0);
             }
+        } finally {
+            EntitiesLock.unlock(lockIndex);
         }
 
         return null;
@@ -30,7 +34,9 @@ public class EntitiesSubscriptionManager {
 
     public static void subscribe(ServerConnection serverConnection, String world, int cx, int cz) {
         ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (EntitiesLock.getEntitiesLock(key)) {
+        int lockIndex = EntitiesLock.getLockIndex(world, cx, cz);
+        EntitiesLock.lock(lockIndex);
+        try {
             List<ServerConnection> serverConnections = chunkSubscribers.computeIfAbsent(key, key2 -> {
                 synchronized (objectPool) {
                     List<ServerConnection> list = objectPool.poll();
@@ -53,8 +59,10 @@ public class EntitiesSubscriptionManager {
             if (!serverConnections.contains(serverConnection)) {
                 updateSubscriberAdd(serverConnections, serverConnection, world, cx, cz);
                 serverConnections.add(serverConnection);
-                subscribedChunks.computeIfAbsent(serverConnection, k -> new HashSet<>()).add(key);
+                subscribedChunks.computeIfAbsent(serverConnection, k -> ConcurrentHashMap.newKeySet()).add(key);
             }
+        } finally {
+            EntitiesLock.unlock(lockIndex);
         }
     }
 
@@ -63,7 +71,9 @@ public class EntitiesSubscriptionManager {
     }
 
     public static void unsubscribe(ServerConnection serverConnection, ChunkKey key) {
-        synchronized (EntitiesLock.getEntitiesLock(key)) {
+        int lockIndex = EntitiesLock.getLockIndex(key.world, key.x, key.z);
+        EntitiesLock.lock(lockIndex);
+        try {
             List<ServerConnection> serverConnections = chunkSubscribers.get(key);
             if (serverConnections != null) {
                 if (serverConnections.remove(serverConnection)) {
@@ -77,10 +87,12 @@ public class EntitiesSubscriptionManager {
                 }
             }
 
-            HashSet<ChunkKey> chunks = subscribedChunks.get(serverConnection);
+            Set<ChunkKey> chunks = subscribedChunks.get(serverConnection);
             if (chunks != null) {
                 chunks.remove(key);
             }
+        } finally {
+            EntitiesLock.unlock(lockIndex);
         }
     }
 
@@ -102,7 +114,9 @@ public class EntitiesSubscriptionManager {
 
     public static void syncSubscribers(ServerConnection serverConnection, String world, int cx, int cz) {
         ChunkKey key = new ChunkKey(world, cx, cz);
-        synchronized (EntitiesLock.getEntitiesLock(key)) {
+        int lockIndex = EntitiesLock.getLockIndex(world, cx, cz);
+        EntitiesLock.lock(lockIndex);
+        try {
             if (!chunkSubscribers.containsKey(key) || !chunkSubscribers.get(key).contains(serverConnection)) {
                 subscribe(serverConnection, world, cx, cz);
             }
@@ -110,11 +124,13 @@ public class EntitiesSubscriptionManager {
             String[] subscribers = chunkSubscribers.get(key).stream().filter(subscriber -> subscriber != serverConnection).map(ServerConnection::getBungeeCordName).toArray(String[]::new);
 
             serverConnection.send(new EntitySubscribersSyncMessage(world, cx, cz, subscribers));
+        } finally {
+            EntitiesLock.unlock(lockIndex);
         }
     }
 
     public static void unsubscribeAll(ServerConnection serverConnection) {
-        HashSet<ChunkKey> chunks = subscribedChunks.remove(serverConnection);
+        Set<ChunkKey> chunks = subscribedChunks.remove(serverConnection);
         if (chunks != null) {
             chunks.forEach(chunk -> unsubscribe(serverConnection, chunk));
         }
@@ -5,71 +5,156 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Put any files being written into a hashmap, and if they're read while they're
- * being written, return the bytes that are being written instead of reading
- * from the file.
+ * Put any files being written into a map, and if they're read while they're
+ * being written, return the latest bytes that are being written instead of
+ * reading from the file. Every file has its own state, so nothing waits on
+ * a file other than the one it's using.
+ *
+ * Writes to a file that's already being written are coalesced: only the
+ * latest bytes are written once the current write is done, and every write
+ * that was coalesced completes with it. Writers never block, a write that
+ * has to wait is queued on the file instead of parking a thread.
  */
 public class FileLocker {
 
-    private static final HashMap<File, byte[]> beingWritten = new HashMap<>();
-    private static final HashMap<File, CompletableFuture<Void>> locks = new HashMap<>();
+    private static final Map<File, PendingWrite> beingWritten = new ConcurrentHashMap<>();
+    private static final Map<File, CompletableFuture<Void>> locks = new ConcurrentHashMap<>();
 
-    public static CompletableFuture<CompletableFuture<Void>> createLockAsync(File file) {
-        synchronized (locks) {
-            if (locks.containsKey(file)) {
-                return locks.get(file).thenCompose(value -> createLockAsync(file));
-            }
+    private static final LongAdder writes = new LongAdder();
+    private static final LongAdder coalescedWrites = new LongAdder();
+    private static final LongAdder lockWaits = new LongAdder();
 
-            CompletableFuture<Void> lock = new CompletableFuture<>();
+    private static class PendingWrite {
+        private volatile byte[] latest;
+        private byte[] writing;
+        private CompletableFuture<Void> writingDone = new CompletableFuture<>();
+        private byte[] next;
+        private CompletableFuture<Void> nextDone;
 
-            locks.put(file, lock.thenRun(() -> {
-                synchronized (locks) {
-                    locks.remove(file);
-                }
-            }));
+        private PendingWrite(byte[] bytes) {
+            this.latest = bytes;
+            this.writing = bytes;
+        }
+    }
 
+    /**
+     * Lock the file until the returned lock is completed. Locks are granted
+     * in the order they were requested in, without blocking any threads.
+     */
+    public static CompletableFuture<CompletableFuture<Void>> createLockAsync(File file) {
+        CompletableFuture<Void> lock = new CompletableFuture<>();
+        CompletableFuture<Void> previous = locks.put(file, lock);
+        lock.whenComplete((value, throwable) -> locks.remove(file, lock));
+
+        if (previous == null) {
             return CompletableFuture.completedFuture(lock);
         }
+
+        lockWaits.increment();
+        return previous.handle((value, throwable) -> lock);
     }
 
     public static byte[] readBytes(File file) throws IOException {
-        synchronized (beingWritten) {
-            if (beingWritten.containsKey(file)) {
-                return beingWritten.get(file);
-            }
+        PendingWrite pendingWrite = beingWritten.get(file);
+        if (pendingWrite != null) {
+            return pendingWrite.latest;
         }
 
         return !file.isFile() ? new byte[0] : Files.readAllBytes(file.toPath());
     }
 
-    public static void writeBytes(File file, byte[] bytes) throws IOException {
-        synchronized (beingWritten) {
-            while (beingWritten.containsKey(file)) {
-                try {
-                    // Wait 1 millisecond for file to finish being written
-                    beingWritten.wait(1);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+    /**
+     * Write the file on the executor, unless it's already being written, in
+     * which case these bytes are written once the current write is done.
+     * @return A future that completes once these bytes, or newer bytes, have
+     *         been written
+     */
+    public static CompletableFuture<Void> writeBytesAsync(File file, byte[] bytes, Executor executor) {
+        AtomicReference<CompletableFuture<Void>> done = new AtomicReference<>();
+        boolean[] created = new boolean[1];
+
+        PendingWrite pendingWrite = beingWritten.compute(file, (key, existing) -> {
+            if (existing == null) {
+                PendingWrite pending = new PendingWrite(bytes);
+                done.set(pending.writingDone);
+                created[0] = true;
+                return pending;
+            }
+
+            synchronized (existing) {
+                if (existing.next == null) {
+                    existing.nextDone = new CompletableFuture<>();
+                } else {
+                    coalescedWrites.increment();
                 }
+                existing.next = bytes;
+                existing.latest = bytes;
+                done.set(existing.nextDone);
             }
+            return existing;
+        });
 
-            beingWritten.put(file, bytes);
+        if (created[0]) {
+            executor.execute(() -> writePending(file, pendingWrite));
         }
 
-        try {
-            file.getParentFile().mkdirs();
-            safeWrite(file, bytes);
-        } finally {
-            synchronized (beingWritten) {
-                beingWritten.remove(file);
+        return done.get();
+    }
+
+    /* write the bytes of the pending write, and then any bytes that were written while we were writing */
+    private static void writePending(File file, PendingWrite pendingWrite) {
+        while (true) {
+            byte[] bytes;
+            CompletableFuture<Void> done;
+            synchronized (pendingWrite) {
+                bytes = pendingWrite.writing;
+                done = pendingWrite.writingDone;
+            }
+
+            writes.increment();
+            try {
+                file.getParentFile().mkdirs();
+                safeWrite(file, bytes);
+                done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+
+            boolean[] finished = new boolean[1];
+            beingWritten.compute(file, (key, existing) -> {
+                synchronized (pendingWrite) {
+                    if (pendingWrite.next == null) {
+                        finished[0] = true;
+                        return null;
+                    }
+
+                    pendingWrite.writing = pendingWrite.next;
+                    pendingWrite.writingDone = pendingWrite.nextDone;
+                    pendingWrite.next = null;
+                    pendingWrite.nextDone = null;
+                    return pendingWrite;
+                }
+            });
+
+            if (finished[0]) {
+                return;
             }
         }
     }
 
+    public static String getStats() {
+        return String.format("File locker: %d files being written, %d writes, %d coalesced writes, %d lock waits",
+                beingWritten.size(), writes.sum(), coalescedWrites.sum(), lockWaits.sum());
+    }
+
     private static void safeWrite(File file, byte[] bytes) throws IOException {
         File newFile = new File(file.getParentFile(), file.getName() + "_new");
         File oldFile = new File(file.getParentFile(), file.getName() + "_old");
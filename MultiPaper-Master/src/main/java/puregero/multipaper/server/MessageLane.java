@@ -0,0 +1,103 @@
+package puregero.multipaper.server;
+
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.*;
+import puregero.multipaper.server.util.IOScheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The lane each master-bound message belongs to. Lanes label messages for the
+ * stats and pick the I/O pools their blocking work runs on, they don't
+ * dispatch the messages themselves: every message is still handled in
+ * arrival order on its connection's event loop, which keeps the messages
+ * about one chunk in the order they were sent in. The handlers only do
+ * in-memory work there and hand anything that blocks to the lane's pools,
+ * so a burst of player data writes or a large upload doesn't hold up chunk
+ * reads on disk. A large message still has to be received in full before
+ * the messages behind it on the same connection, and OWNERSHIP and CONTROL
+ * have no pools as they never block. Files are kept in order with
+ * {@link IOScheduler#orderedBy(Object)}.
+ */
+public enum MessageLane {
+    OWNERSHIP,
+    READ(IOScheduler.CHUNK_READ, IOScheduler.FILE_READ),
+    WRITE(IOScheduler.CHUNK_WRITE, IOScheduler.FILE),
+    BULK(IOScheduler.BULK),
+    CONTROL;
+
+    private static final Map<Class<?>, MessageLane> lanes = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[] {
+                LockChunkMessage.class, UnlockChunkMessage.class, RequestChunkOwnershipMessage.class,
+                SubscribeChunkMessage.class, UnsubscribeChunkMessage.class, SubscribeEntitiesMessage.class,
+                UnsubscribeEntitiesMessage.class, SyncChunkOwnerToAllMessage.class, SyncChunkSubscribersMessage.class,
+                SyncEntitiesSubscribersMessage.class, ChunkChangedStatusMessage.class, WillSaveChunkLaterMessage.class,
+                WillSaveEntitiesLaterMessage.class }) {
+            lanes.put(type, OWNERSHIP);
+        }
+
+        for (Class<?> type : new Class<?>[] {
+                ReadChunkMessage.class, ReadChunksMessage.class, ForceReadChunkMessage.class, ReadPlayerMessage.class,
+                ReadDataMessage.class, ReadStatsMessage.class, ReadAdvancementMessage.class, ReadLevelMessage.class,
+                ReadUidMessage.class, ReadJsonMessage.class }) {
+            lanes.put(type, READ);
+        }
+
+        for (Class<?> type : new Class<?>[] {
+                WriteChunkMessage.class, WritePlayerMessage.class, WriteDataMessage.class, WriteStatsMessage.class,
+                WriteAdvancementsMessage.class, WriteLevelMessage.class, WriteUidMessage.class, WriteJsonMessage.class,
+                CallDataStorageMessage.class, WatchDataStorageMessage.class, BatchDataStorageMessage.class }) {
+            lanes.put(type, WRITE);
+        }
+
+        for (Class<?> type : new Class<?>[] {
+                UploadFileMessage.class, DownloadFileMessage.class, RequestFilesToSyncMessage.class,
+                MasterBoundDataStreamMessage.class, MasterBoundDataStreamAckMessage.class }) {
+            lanes.put(type, BULK);
+        }
+    }
+
+    private final IOScheduler[] schedulers;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder handleNanos = new LongAdder();
+    private final AtomicLong maxHandleNanos = new AtomicLong();
+
+    MessageLane(IOScheduler... schedulers) {
+        this.schedulers = schedulers;
+    }
+
+    public static MessageLane of(MasterBoundMessage message) {
+        return lanes.getOrDefault(message.getClass(), CONTROL);
+    }
+
+    /**
+     * @param nanos How long the message took to handle on the event loop
+     */
+    void record(long nanos) {
+        messages.increment();
+        handleNanos.add(nanos);
+        maxHandleNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return How many tasks are waiting for this lane's I/O pools
+     */
+    public int getQueueDepth() {
+        int queued = 0;
+        for (IOScheduler scheduler : schedulers) {
+            queued += scheduler.getQueueDepth();
+        }
+        return queued;
+    }
+
+    @Override
+    public String toString() {
+        long count = messages.sum();
+        return String.format("%s lane: %d messages, %.1fus avg on the event loop, %.2fms max, %d queued for I/O",
+                name(), count, count == 0 ? 0 : handleNanos.sum() / 1e3 / count, maxHandleNanos.get() / 1e6, getQueueDepth());
+    }
+}
@@ -7,7 +7,10 @@ import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBo
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundProtocol;
 import puregero.multipaper.server.proxy.ProxyServer;
+import puregero.multipaper.server.util.ChunkCache;
+import puregero.multipaper.server.util.IOScheduler;
 import puregero.multipaper.server.util.LogToFile;
+import puregero.multipaper.server.util.RegionFileCache;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
@@ -52,15 +55,27 @@ public class MultiPaperServer extends MessageBootstrap<MasterBoundMessage, Serve
             }
         }
 
+        RegionFileCache.pinConfiguredRegions();
+
         new MultiPaperServer(address, port);
 
         if (new CommandLineInput().run()) {
+            PlayerDataCache.flushAll().join();
             System.exit(0);
         }
     }
 
     private static void awaitAsyncTasks() {
         System.out.println("Waiting for async tasks...");
+        if (!IOScheduler.awaitIdle(10, TimeUnit.SECONDS)) {
+            System.out.println("Some I/O tasks are taking a long time to complete.");
+            for (IOScheduler scheduler : IOScheduler.getSchedulers()) {
+                System.out.println(scheduler);
+            }
+
+            IOScheduler.awaitIdle(1, TimeUnit.HOURS);
+        }
+
         if (!ForkJoinPool.commonPool().awaitQuiescence(10, TimeUnit.SECONDS)) {
             System.out.println("Some tasks are taking a long time to complete.");
             System.out.println("Thread list:");
@@ -110,6 +125,15 @@ public class MultiPaperServer extends MessageBootstrap<MasterBoundMessage, Serve
             }
 
             awaitAsyncTasks();
+
+            System.out.println("Flushing chunk cache...");
+            ChunkCache.flushAll().join();
+
+            System.out.println("Flushing player data cache...");
+            PlayerDataCache.flushAll().join();
+
+            System.out.println("Closing region files...");
+            RegionFileCache.closeAll();
         });
         Runtime.getRuntime().addShutdownHook(shutdownListener);
     }
@@ -0,0 +1,340 @@
+package puregero.multipaper.server;
+
+import puregero.multipaper.server.util.IOScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latest player data, stats and advancements of players, so that the
+ * reads on every login and every transfer between servers are served from
+ * memory instead of the disk.
+ *
+ * Writes are acknowledged as soon as they've been cached and are written
+ * behind: a file is flushed at most player.cache.flush.interval.seconds after
+ * it was written, and every write in the meantime is coalesced into that one
+ * flush. A file is evicted once it has been flushed and its player has been
+ * offline for player.cache.expiry.seconds. Each file is locked on its own, so
+ * players never wait on each other.
+ */
+public class PlayerDataCache {
+
+    private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("player.cache.flush.interval.seconds", 5L) * 1000;
+    private static final long EXPIRY_MILLIS = Long.getLong("player.cache.expiry.seconds", 300L) * 1000;
+
+    private static final Map<File, Entry> entries = new ConcurrentHashMap<>();
+    // The cached files of each player, only modified inside compute() on the player's key
+    private static final Map<String, Set<File>> filesByUuid = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder coalescedWrites = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private PlayerDataCache() {
+    }
+
+    /* every field but uuid is guarded by the entry's own lock */
+    private static class Entry {
+        private final String uuid;
+        private byte[] data;
+        private boolean loaded = false;
+        private CompletableFuture<byte[]> loading;
+        private long version = 0;
+        private long persistedVersion = 0;
+        private boolean flushScheduled = false;
+        private boolean expiryScheduled = false;
+        private boolean removed = false;
+        private long lastAccess = System.currentTimeMillis();
+
+        private Entry(String uuid) {
+            this.uuid = uuid;
+        }
+
+        private boolean isDirty() {
+            return version != persistedVersion;
+        }
+    }
+
+    /* the file's entry, which may have been removed by the time the caller has locked it */
+    private static Entry getEntry(File file, String uuid) {
+        Entry entry = entries.get(file);
+        if (entry != null) {
+            return entry;
+        }
+
+        Entry created = new Entry(uuid);
+        entry = entries.putIfAbsent(file, created);
+        if (entry != null) {
+            return entry;
+        }
+
+        filesByUuid.compute(uuid, (key, files) -> {
+            if (files == null) {
+                files = new HashSet<>();
+            }
+            files.add(file);
+            return files;
+        });
+        synchronized (created) {
+            scheduleExpiry(file, created);
+        }
+        return created;
+    }
+
+    /* must be called while holding the lock on the entry */
+    private static void removeEntry(File file, Entry entry) {
+        entry.removed = true;
+        entries.remove(file, entry);
+        filesByUuid.computeIfPresent(entry.uuid, (key, files) -> {
+            if (!entries.containsKey(file)) {
+                files.remove(file);
+            }
+            return files.isEmpty() ? null : files;
+        });
+    }
+
+    public static CompletableFuture<byte[]> read(File file, String uuid) {
+        while (true) {
+            Entry entry = getEntry(file, uuid);
+            CompletableFuture<byte[]> load;
+
+            synchronized (entry) {
+                if (entry.removed) {
+                    // It was evicted just as we got it
+                    continue;
+                }
+
+                entry.lastAccess = System.currentTimeMillis();
+                if (entry.loaded) {
+                    hits.increment();
+                    return CompletableFuture.completedFuture(entry.data);
+                }
+
+                if (entry.loading != null) {
+                    // Someone else is already reading it from the disk
+                    hits.increment();
+                    return entry.loading;
+                }
+
+                misses.increment();
+                load = entry.loading = new CompletableFuture<>();
+            }
+
+            load(file, entry, load);
+            return load;
+        }
+    }
+
+    private static void load(File file, Entry entry, CompletableFuture<byte[]> load) {
+        IOScheduler.FILE_READ.orderedBy(file).execute(() -> {
+            try {
+                byte[] data = FileLocker.readBytes(file);
+                synchronized (entry) {
+                    entry.loading = null;
+                    if (!entry.loaded) {
+                        entry.data = data;
+                        entry.loaded = true;
+                    } else {
+                        // It has been written to while we were reading it, the newer data wins
+                        data = entry.data;
+                    }
+                }
+                load.complete(data);
+            } catch (IOException e) {
+                synchronized (entry) {
+                    entry.loading = null;
+                    if (!entry.loaded) {
+                        removeEntry(file, entry);
+                    }
+                }
+                load.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Cache the data and schedule it to be written to the file.
+     */
+    public static void write(File file, String uuid, byte[] data) {
+        while (true) {
+            Entry entry = getEntry(file, uuid);
+            synchronized (entry) {
+                if (entry.removed) {
+                    // It was evicted just as we got it
+                    continue;
+                }
+
+                entry.data = data;
+                entry.loaded = true;
+                entry.version++;
+                entry.lastAccess = System.currentTimeMillis();
+
+                if (entry.flushScheduled) {
+                    coalescedWrites.increment();
+                } else {
+                    scheduleFlush(file, entry, FLUSH_INTERVAL_MILLIS);
+                }
+                return;
+            }
+        }
+    }
+
+    /* must be called while holding the lock on the entry */
+    private static void scheduleFlush(File file, Entry entry, long delayMillis) {
+        entry.flushScheduled = true;
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> flush(file, entry));
+    }
+
+    /**
+     * @return A future that completes once the data has been written
+     */
+    private static CompletableFuture<Void> flush(File file, Entry entry) {
+        byte[] data;
+        long version;
+        synchronized (entry) {
+            // Writes from now on need another flush
+            entry.flushScheduled = false;
+            if (!entry.isDirty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            data = entry.data;
+            version = entry.version;
+            flushes.increment();
+        }
+
+        return FileLocker.writeBytesAsync(file, data, IOScheduler.FILE).whenComplete((value, throwable) -> {
+            synchronized (entry) {
+                if (throwable == null) {
+                    entry.persistedVersion = Math.max(entry.persistedVersion, version);
+                } else if (!entry.flushScheduled) {
+                    scheduleFlush(file, entry, Math.max(FLUSH_INTERVAL_MILLIS, 1000));
+                }
+            }
+
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        });
+    }
+
+    /* must be called while holding the lock on the entry */
+    private static void scheduleExpiry(File file, Entry entry) {
+        entry.expiryScheduled = true;
+        CompletableFuture.delayedExecutor(EXPIRY_MILLIS, TimeUnit.MILLISECONDS).execute(() -> expire(file, entry));
+    }
+
+    private static void expire(File file, Entry entry) {
+        boolean online = isOnline(entry.uuid);
+        synchronized (entry) {
+            entry.expiryScheduled = false;
+            if (entry.removed || online) {
+                // Checked again once the player disconnects, or their server does
+                return;
+            }
+
+            if (entry.isDirty() || entry.flushScheduled || entry.loading != null
+                    || System.currentTimeMillis() - entry.lastAccess < EXPIRY_MILLIS) {
+                scheduleExpiry(file, entry);
+                return;
+            }
+
+            removeEntry(file, entry);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Start counting down to evicting the player's files.
+     */
+    public static void playerDisconnected(UUID uuid) {
+        String uuidString = uuid.toString();
+        List<File> files = new ArrayList<>();
+        filesByUuid.computeIfPresent(uuidString, (key, playerFiles) -> {
+            files.addAll(playerFiles);
+            return playerFiles;
+        });
+
+        for (File file : files) {
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                synchronized (entry) {
+                    if (!entry.removed && !entry.expiryScheduled) {
+                        entry.lastAccess = System.currentTimeMillis();
+                        scheduleExpiry(file, entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start counting down to evicting the files of every player that was on a
+     * server that has disconnected, as it may have crashed before telling us
+     * they'd left.
+     */
+    public static void serverDisconnected(Collection<UUID> players) {
+        for (UUID uuid : players) {
+            playerDisconnected(uuid);
+        }
+    }
+
+    private static boolean isOnline(String uuid) {
+        UUID playerUuid;
+        try {
+            playerUuid = UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        List<ServerConnection> connections = ServerConnection.getConnections();
+        synchronized (connections) {
+            for (ServerConnection connection : connections) {
+                if (connection.hasPlayer(playerUuid)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write every file that hasn't been persisted yet.
+     */
+    public static CompletableFuture<Void> flushAll() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Map.Entry<File, Entry> entry : entries.entrySet()) {
+            futures.add(flush(entry.getKey(), entry.getValue()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    public static String getStats() {
+        int files = 0;
+        int dirty = 0;
+        for (Entry entry : entries.values()) {
+            files++;
+            synchronized (entry) {
+                if (entry.isDirty()) {
+                    dirty++;
+                }
+            }
+        }
+
+        return String.format("Player data cache: %d files (%d dirty), %d players, %d hits, %d misses, %d flushes, %d coalesced writes, %d evictions",
+                files, dirty, filesByUuid.size(), hits.sum(), misses.sum(), flushes.sum(), coalescedWrites.sum(), evictions.sum());
+    }
+}
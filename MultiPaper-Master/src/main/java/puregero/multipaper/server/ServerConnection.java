@@ -1,9 +1,17 @@
 package puregero.multipaper.server;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.socket.SocketChannel;
+import puregero.multipaper.mastermessagingprotocol.MessageEncoder;
+import puregero.multipaper.mastermessagingprotocol.messages.ProtocolFeatures;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.*;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.EnableStringDictionaryMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ProtocolFeaturesMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetCellOwnerMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetChunkOwnerMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetCompressionMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetSecretMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ShutdownMessage;
 import puregero.multipaper.server.handlers.*;
@@ -16,6 +24,13 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 public class ServerConnection extends MasterBoundMessageHandler {
+    // Compress messages at least this many bytes long, -1 to disable compression
+    private static final int COMPRESSION_THRESHOLD = Integer.getInteger("multipaper.compression.threshold", 256);
+    private static final boolean COMPRESS_LOOPBACK = Boolean.getBoolean("multipaper.compression.loopback");
+    // Disconnect a server that has fallen this far behind, instead of buffering until we run out of memory
+    private static final long MAX_QUEUED_BYTES = Long.getLong("multipaper.outbound.queue.limit.mb", 256L) * 1024 * 1024;
+    private static final boolean STRING_DICTIONARY = Boolean.parseBoolean(System.getProperty("multipaper.string.dictionary", "true"));
+
     private final SocketChannel channel;
 
     private String name;
@@ -28,6 +43,30 @@ public class ServerConnection extends MasterBoundMessageHandler {
     private int port = -1;
     private String host;
     private UUID uuid;
+    volatile short chunkIndexId = -1; // Assigned by ChunkSubscriptionManager
+    // Messages held back while the channel isn't writable, in the order they were sent
+    private final ArrayDeque<PendingMessage> pendingMessages = new ArrayDeque<>();
+    // The held back owner updates, a newer update to the same chunk replaces the queued one when it can
+    private final Map<OwnerUpdateKey, PendingMessage> pendingOwnerUpdates = new HashMap<>();
+    private volatile boolean holdingBack = false;
+    private long pendingSequence = 0;
+    // The last held back message that an owner update must not be moved in front of
+    private long lastPendingBarrier = 0;
+    private long pendingBytes = 0;
+    private long coalescedOwnerUpdates = 0;
+    private boolean disconnectingSlowServer = false;
+
+    private record OwnerUpdateKey(Class<?> type, String world, int cx, int cz) {}
+
+    private static class PendingMessage {
+        private ServerBoundMessage message;
+        private final long sequence;
+
+        private PendingMessage(ServerBoundMessage message, long sequence) {
+            this.message = message;
+            this.sequence = sequence;
+        }
+    }
 
     /**
      * This connection map may include dead servers! Check if a server is alive
@@ -99,8 +138,125 @@ public class ServerConnection extends MasterBoundMessageHandler {
         return channel;
     }
 
+    /**
+     * Owner updates are held back while the channel isn't writable, so that
+     * only the latest owner of a chunk is sent once it catches up. Once
+     * anything is held back, every later message is queued behind it too, as
+     * a reply may only be sent after the owner updates it caused.
+     */
     public void send(ServerBoundMessage message) {
-       channel.writeAndFlush(message);
+        if (getQueuedBytes() > MAX_QUEUED_BYTES) {
+            disconnectSlowServer();
+            return;
+        }
+
+        OwnerUpdateKey ownerUpdateKey = getOwnerUpdateKey(message);
+        if (ownerUpdateKey == null && !holdingBack) {
+            channel.writeAndFlush(message);
+            return;
+        }
+
+        synchronized (pendingMessages) {
+            if (pendingMessages.isEmpty() && (ownerUpdateKey == null || channel.isWritable())) {
+                // Write it while holding the lock so that it can't overtake anything that's about to be held back
+                channel.writeAndFlush(message);
+                return;
+            }
+
+            if (ownerUpdateKey != null) {
+                PendingMessage pending = pendingOwnerUpdates.get(ownerUpdateKey);
+                if (pending != null && pending.sequence > lastPendingBarrier) {
+                    // Only other owner updates have been queued since, it can be replaced where it is
+                    pendingBytes += message.estimateSize() - pending.message.estimateSize();
+                    pending.message = message;
+                    coalescedOwnerUpdates++;
+                    return;
+                }
+            }
+
+            PendingMessage pending = new PendingMessage(message, ++pendingSequence);
+            pendingMessages.add(pending);
+            pendingBytes += message.estimateSize();
+            if (ownerUpdateKey != null) {
+                pendingOwnerUpdates.put(ownerUpdateKey, pending);
+            } else {
+                lastPendingBarrier = pending.sequence;
+            }
+            holdingBack = true;
+        }
+    }
+
+    private static OwnerUpdateKey getOwnerUpdateKey(ServerBoundMessage message) {
+        if (message.getTransactionId() != 0) {
+            return null;
+        } else if (message instanceof SetChunkOwnerMessage setChunkOwner) {
+            return new OwnerUpdateKey(SetChunkOwnerMessage.class, setChunkOwner.world, setChunkOwner.cx, setChunkOwner.cz);
+        } else if (message instanceof SetCellOwnerMessage setCellOwner) {
+            return new OwnerUpdateKey(SetCellOwnerMessage.class, setCellOwner.world, setCellOwner.cx, setCellOwner.cz);
+        }
+        return null;
+    }
+
+    private void sendPendingMessages() {
+        synchronized (pendingMessages) {
+            if (!pendingMessages.isEmpty()) {
+                for (PendingMessage pending : pendingMessages) {
+                    channel.write(pending.message);
+                }
+                clearPendingMessages();
+                channel.flush();
+            }
+        }
+    }
+
+    /* must be called while holding the lock on pendingMessages */
+    private void clearPendingMessages() {
+        pendingMessages.clear();
+        pendingOwnerUpdates.clear();
+        pendingBytes = 0;
+        holdingBack = false;
+    }
+
+    private void disconnectSlowServer() {
+        synchronized (pendingMessages) {
+            if (disconnectingSlowServer) {
+                return;
+            }
+            disconnectingSlowServer = true;
+        }
+
+        System.out.println("Disconnecting " + name + " as it has fallen behind with " + getQueuedBytes() / 1024 / 1024 + "MB of messages queued");
+        channel.close();
+    }
+
+    /**
+     * @return The number of bytes queued to be sent to this server, including
+     *         messages that haven't been encoded yet and an estimate of the
+     *         messages being held back
+     */
+    public long getQueuedBytes() {
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        long pending;
+        synchronized (pendingMessages) {
+            pending = pendingBytes;
+        }
+        return pending + (outboundBuffer == null ? 0 : outboundBuffer.totalPendingWriteBytes());
+    }
+
+    public String getOutboundQueueStats() {
+        synchronized (pendingMessages) {
+            return String.format("Outbound queue to %s: %.1fKB%s, %d held back messages (%d owner updates), %d coalesced owner updates, %d requests awaiting a reply",
+                    name, getQueuedBytes() / 1024.0, channel.isWritable() ? "" : " (not writable)",
+                    pendingMessages.size(), pendingOwnerUpdates.size(), coalescedOwnerUpdates, getRequestsInFlight());
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (channel.isWritable()) {
+            sendPendingMessages();
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     public void send(ServerBoundMessage message, Consumer<MasterBoundMessage> callback) {
@@ -133,6 +289,7 @@ public class ServerConnection extends MasterBoundMessageHandler {
         name = message.name;
         host = ((InetSocketAddress) getAddress()).getAddress().getHostAddress();
         uuid = message.serverUuid;
+        setProtocolFeatures(message.features);
 
         synchronized (connections) {
             connections.add(this);
@@ -154,6 +311,27 @@ public class ServerConnection extends MasterBoundMessageHandler {
         System.out.println("Connection from " + getAddress() + " (" + name + ")");
 
         send(new SetSecretMessage(MultiPaperServer.SECRET));
+
+        if (hasProtocolFeature(ProtocolFeatures.DATA_STREAM_WINDOW)) {
+            // Older servers don't know this message, only tell servers that will understand it
+            send(new ProtocolFeaturesMessage(message.features & ProtocolFeatures.SUPPORTED));
+        }
+
+        if (COMPRESSION_THRESHOLD >= 0 && hasProtocolFeature(ProtocolFeatures.COMPRESSION)
+                && (COMPRESS_LOOPBACK || !((InetSocketAddress) getAddress()).getAddress().isLoopbackAddress())) {
+            MessageEncoder.sendAndEnableCompression(channel, new SetCompressionMessage(COMPRESSION_THRESHOLD), COMPRESSION_THRESHOLD);
+        }
+
+        if (STRING_DICTIONARY && hasProtocolFeature(ProtocolFeatures.STRING_DICTIONARY)) {
+            MessageEncoder.sendAndEnableStringDictionary(channel, new EnableStringDictionaryMessage());
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, MasterBoundMessage message) {
+        long start = System.nanoTime();
+        super.channelRead0(ctx, message);
+        MessageLane.of(message).record(System.nanoTime() - start);
     }
 
     @Override
@@ -164,7 +342,12 @@ public class ServerConnection extends MasterBoundMessageHandler {
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
+        synchronized (pendingMessages) {
+            clearPendingMessages();
+        }
+
         EntitiesSubscriptionManager.unsubscribeAll(this);
+        DataStorageWatchers.unwatchAll(this);
         ChunkSubscriptionManager.unsubscribeAndUnlockAll(this);
 
         synchronized (listeners) {
@@ -177,6 +360,12 @@ public class ServerConnection extends MasterBoundMessageHandler {
             connections.remove(this);
         }
 
+        List<UUID> players;
+        synchronized (playerUUIDs) {
+            players = new ArrayList<>(playerUUIDs);
+        }
+        PlayerDataCache.serverDisconnected(players);
+
         System.out.println(ctx.channel().remoteAddress() + " (" + name + ") closed");
     }
 
@@ -463,4 +652,34 @@ public class ServerConnection extends MasterBoundMessageHandler {
     public void handle(RequestEntityIdBlock message) {
         RequestEntityIdBlockHandler.handle(this, message);
     }
+
+    @Override
+    public void handle(ReadChunksMessage message) {
+        ReadChunksHandler.handle(this, message);
+    }
+
+    @Override
+    public void handle(CompressionEnabledMessage message) {
+        System.out.println("Compressing messages with " + name + " that are at least " + message.threshold + " bytes long");
+    }
+
+    @Override
+    public void handle(StringDictionaryEnabledMessage message) {
+        // Nothing to do, the decoder has already started using the dictionary
+    }
+
+    @Override
+    public void handle(WatchDataStorageMessage message) {
+        WatchDataStorageHandler.handle(this, message);
+    }
+
+    @Override
+    public void handle(UnwatchDataStorageMessage message) {
+        UnwatchDataStorageHandler.handle(this, message);
+    }
+
+    @Override
+    public void handle(BatchDataStorageMessage message) {
+        BatchDataStorageHandler.handle(this, message);
+    }
 }
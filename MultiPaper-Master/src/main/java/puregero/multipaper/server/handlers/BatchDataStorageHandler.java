@@ -0,0 +1,37 @@
+package puregero.multipaper.server.handlers;
+
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.BatchDataStorageMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BatchDataStorageMessageReply;
+import puregero.multipaper.server.DataStorage;
+import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+public class BatchDataStorageHandler {
+    public static void handle(ServerConnection connection, BatchDataStorageMessage message) {
+        if (DataStorage.isLoaded()) {
+            // Nothing here blocks once the data storage is loaded
+            try {
+                reply(connection, message);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> reply(connection, message), IOScheduler.FILE).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
+        });
+    }
+
+    private static void reply(ServerConnection connection, BatchDataStorageMessage message) {
+        DataStorage.load();
+
+        String[] results = new String[message.operations.size()];
+        boolean committed = DataStorage.batch(message.operations, results);
+        connection.sendReply(new BatchDataStorageMessageReply(committed, Arrays.asList(results)), message);
+    }
+}
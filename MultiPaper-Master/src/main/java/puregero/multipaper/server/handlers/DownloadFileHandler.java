@@ -5,10 +5,12 @@ import puregero.multipaper.mastermessagingprotocol.messages.masterbound.Download
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.FileContentMessage;
 import puregero.multipaper.server.FileLocker;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.CompletableFuture;
 
 public class DownloadFileHandler {
@@ -18,12 +20,13 @@ public class DownloadFileHandler {
         FileLocker.createLockAsync(file).thenAcceptAsync(lock -> {
             try {
                 connection.sendReply(new FileContentMessage(message.path, file.lastModified(), dataStream.getStreamId()), message);
-                dataStream.copyFromAsync(new FileInputStream(file)).addListener(future -> {
+                dataStream.copyFromAsync(FileChannel.open(file.toPath(), StandardOpenOption.READ)).addListener(future -> {
                     lock.complete(null);
                 });
             } catch (IOException e) {
                 e.printStackTrace();
+                lock.complete(null);
             }
-        });
+        }, IOScheduler.BULK);
     }
 }
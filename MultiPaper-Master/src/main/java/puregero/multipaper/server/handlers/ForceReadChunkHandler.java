@@ -4,9 +4,8 @@ import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ForceRea
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.ChunkLockManager;
 import puregero.multipaper.server.ServerConnection;
-import puregero.multipaper.server.util.RegionFileCache;
+import puregero.multipaper.server.util.ChunkCache;
 
-import java.io.File;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -15,7 +14,7 @@ import java.util.concurrent.CompletableFuture;
 public class ForceReadChunkHandler {
     public static void handle(ServerConnection connection, ForceReadChunkMessage message) {
         ChunkLockManager.waitForLock(message.world, message.cx, message.cz, () -> {
-            RegionFileCache.getChunkDeflatedDataAsync(getWorldDir(message.world, message.path), message.cx, message.cz).thenAccept(b -> {
+            ChunkCache.getChunkDeflatedDataAsync(message.world, message.path, message.cx, message.cz).thenAccept(b -> {
                 if (b == null) {
                     b = new byte[0];
                 }
@@ -23,18 +22,4 @@ public class ForceReadChunkHandler {
             });
         });
     }
-
-    static File getWorldDir(String world, String path) {
-        File file = new File(world);
-
-        if (world.endsWith("_nether")) {
-            file = new File(file, "DIM-1");
-        }
-
-        if (world.endsWith("_the_end")) {
-            file = new File(file, "DIM1");
-        }
-
-        return new File(file, path);
-    }
 }
@@ -2,22 +2,19 @@ package puregero.multipaper.server.handlers;
 
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadAdvancementMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
-import puregero.multipaper.server.FileLocker;
+import puregero.multipaper.server.PlayerDataCache;
 import puregero.multipaper.server.ServerConnection;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class ReadAdvancementsHandler {
     public static void handle(ServerConnection connection, ReadAdvancementMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                byte[] b = FileLocker.readBytes(new File(new File(message.world, "advancements"), message.uuid + ".json"));
-                connection.sendReply(new DataMessageReply(b), message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        File file = new File(new File(message.world, "advancements"), message.uuid + ".json");
+        PlayerDataCache.read(file, message.uuid).thenAccept(b -> {
+            connection.sendReply(new DataMessageReply(b), message);
+        }).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
         });
     }
 }
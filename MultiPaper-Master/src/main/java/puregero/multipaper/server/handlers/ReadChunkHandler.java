@@ -4,9 +4,7 @@ import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadChun
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ChunkLoadedOnAnotherServerMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.*;
-import puregero.multipaper.server.util.RegionFileCache;
-
-import java.io.File;
+import puregero.multipaper.server.util.ChunkCache;
 
 public class ReadChunkHandler {
     public static void handle(ServerConnection connection, ReadChunkMessage message) {
@@ -15,7 +13,7 @@ public class ReadChunkHandler {
         }
 
         Runnable callback = () -> {
-            RegionFileCache.getChunkDeflatedDataAsync(getWorldDir(message.world, message.path), message.cx, message.cz).thenAccept(b -> {
+            ChunkCache.getChunkDeflatedDataAsync(message.world, message.path, message.cx, message.cz).thenAccept(b -> {
                 if (b == null) {
                     b = new byte[0];
                 }
@@ -33,12 +31,25 @@ public class ReadChunkHandler {
     }
 
     private static boolean checkIfLoadedOnAnotherServer(ServerConnection connection, String world, String path, int cx, int cz, ReadChunkMessage message) {
+        ServerConnection alreadyLoaded = getLoadedOnAnotherServer(connection, world, path, cx, cz);
+        if (alreadyLoaded != null) {
+            connection.sendReply(new ChunkLoadedOnAnotherServerMessage(alreadyLoaded.getBungeeCordName()), message);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Subscribe the connection to the chunk.
+     * @return The other server that already has the chunk loaded, or null
+     */
+    static ServerConnection getLoadedOnAnotherServer(ServerConnection connection, String world, String path, int cx, int cz) {
         if (path.equals("region")) {
             ServerConnection alreadyLoadedChunk = ChunkSubscriptionManager.getOwnerOrSubscriber(world, cx, cz);
             ChunkSubscriptionManager.subscribe(connection, world, cx, cz);
             if (alreadyLoadedChunk != null && alreadyLoadedChunk != connection) {
-                connection.sendReply(new ChunkLoadedOnAnotherServerMessage(alreadyLoadedChunk.getBungeeCordName()), message);
-                return true;
+                return alreadyLoadedChunk;
             }
         }
 
@@ -46,25 +57,10 @@ public class ReadChunkHandler {
             ServerConnection alreadyLoadedEntities = EntitiesSubscriptionManager.getSubscriber(world, cx, cz);
             EntitiesSubscriptionManager.subscribe(connection, world, cx, cz);
             if (alreadyLoadedEntities != null && alreadyLoadedEntities != connection) {
-                connection.sendReply(new ChunkLoadedOnAnotherServerMessage(alreadyLoadedEntities.getBungeeCordName()), message);
-                return true;
+                return alreadyLoadedEntities;
             }
         }
 
-        return false;
-    }
-
-    static File getWorldDir(String world, String path) {
-        File file = new File(world);
-
-        if (world.endsWith("_nether")) {
-            file = new File(file, "DIM-1");
-        }
-
-        if (world.endsWith("_the_end")) {
-            file = new File(file, "DIM1");
-        }
-
-        return new File(file, path);
+        return null;
     }
 }
@@ -0,0 +1,80 @@
+package puregero.multipaper.server.handlers;
+
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadChunksMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ChunkDataMessageReply;
+import puregero.multipaper.server.ChunkLockManager;
+import puregero.multipaper.server.EntitiesLockManager;
+import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.ChunkCache;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class ReadChunksHandler {
+    public static void handle(ServerConnection connection, ReadChunksMessage message) {
+        if (message.cxs.length == 0) {
+            connection.sendReply(new ChunkDataMessageReply(0, 0, new byte[0], null, true), message);
+            return;
+        }
+
+        Batch batch = new Batch(connection, message);
+
+        // Read the chunks a region at a time, so each region file is only opened once
+        Integer[] order = new Integer[message.cxs.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> message.cxs[i] >> 5).thenComparingInt(i -> message.czs[i] >> 5));
+
+        for (int i : order) {
+            int cx = message.cxs[i];
+            int cz = message.czs[i];
+
+            ServerConnection alreadyLoaded = ReadChunkHandler.getLoadedOnAnotherServer(connection, message.world, message.path, cx, cz);
+            if (alreadyLoaded != null) {
+                batch.reply(cx, cz, null, alreadyLoaded.getBungeeCordName());
+                continue;
+            }
+
+            Runnable callback = () -> {
+                ChunkCache.getChunkDeflatedDataAsync(message.world, message.path, cx, cz).whenComplete((b, throwable) -> {
+                    if (throwable != null) {
+                        // An empty reply would make the server generate the chunk and overwrite the real one
+                        System.err.println("Failed to read chunk " + cx + "," + cz + " in " + message.world + "/" + message.path);
+                        throwable.printStackTrace();
+                        batch.fail(cx, cz);
+                    } else {
+                        batch.reply(cx, cz, b == null ? new byte[0] : b, null);
+                    }
+                });
+            };
+
+            if (message.path.equals("region")) {
+                ChunkLockManager.waitForLock(message.world, cx, cz, callback);
+            } else if (message.path.equals("entities")) {
+                EntitiesLockManager.waitForLock(message.world, cx, cz, callback);
+            } else {
+                callback.run();
+            }
+        }
+    }
+
+    private static class Batch {
+        private final ServerConnection connection;
+        private final ReadChunksMessage message;
+        private int remaining;
+
+        private Batch(ServerConnection connection, ReadChunksMessage message) {
+            this.connection = connection;
+            this.message = message;
+            this.remaining = message.cxs.length;
+        }
+
+        /* synchronized so that the reply marked as last is also the last one sent */
+        private synchronized void reply(int cx, int cz, byte[] data, String loadedOnServer) {
+            connection.sendReply(new ChunkDataMessageReply(cx, cz, data, loadedOnServer, --remaining == 0), message);
+        }
+
+        private synchronized void fail(int cx, int cz) {
+            connection.sendReply(ChunkDataMessageReply.failed(cx, cz, --remaining == 0), message);
+        }
+    }
+}
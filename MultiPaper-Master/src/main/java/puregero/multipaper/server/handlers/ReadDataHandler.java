@@ -4,6 +4,7 @@ import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadData
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.FileLocker;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,13 +12,14 @@ import java.util.concurrent.CompletableFuture;
 
 public class ReadDataHandler {
     public static void handle(ServerConnection connection, ReadDataMessage message) {
+        File file = new File(message.path);
         CompletableFuture.runAsync(() -> {
             try {
-                byte[] b = FileLocker.readBytes(new File(message.path));
+                byte[] b = FileLocker.readBytes(file);
                 connection.sendReply(new DataMessageReply(b), message);
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE_READ.orderedBy(file));
     }
 }
@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadJsonMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.util.concurrent.CompletableFuture;
 
 public class ReadJsonHandler {
     public static void handle(ServerConnection connection, ReadJsonMessage message) {
+        File file = new File(message.file);
         CompletableFuture.runAsync(() -> {
             try {
                 synchronized (WriteJsonHandler.writesInProgress) {
@@ -23,7 +25,7 @@ public class ReadJsonHandler {
                 }
 
                 try {
-                    byte[] b = Files.readAllBytes(new File(message.file).toPath());
+                    byte[] b = Files.readAllBytes(file.toPath());
                     connection.sendReply(new DataMessageReply(b), message);
                 } catch (NoSuchFileException e) {
                     connection.sendReply(new DataMessageReply(new byte[0]), message);
@@ -31,6 +33,6 @@ public class ReadJsonHandler {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE_READ.orderedBy(file));
     }
 }
@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadLevelMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,10 +18,11 @@ public class ReadLevelHandler {
     private static final HashMap<String, String> emptyLevelDatLocker = new HashMap<>();
 
     public static void handle(ServerConnection connection, ReadLevelMessage message) {
+        File file = new File(message.world, "level.dat");
         CompletableFuture.runAsync(() -> {
             try {
                 try {
-                    byte[] b = Files.readAllBytes(new File(message.world, "level.dat").toPath());
+                    byte[] b = Files.readAllBytes(file.toPath());
                     connection.sendReply(new DataMessageReply(b), message);
                 } catch (NoSuchFileException e) {
                     synchronized (emptyLevelDatLockTimes) {
@@ -42,6 +44,6 @@ public class ReadLevelHandler {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE_READ.orderedBy(file));
     }
 }
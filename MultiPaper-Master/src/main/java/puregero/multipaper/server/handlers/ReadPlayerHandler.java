@@ -2,22 +2,19 @@ package puregero.multipaper.server.handlers;
 
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadPlayerMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
-import puregero.multipaper.server.FileLocker;
+import puregero.multipaper.server.PlayerDataCache;
 import puregero.multipaper.server.ServerConnection;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class ReadPlayerHandler {
     public static void handle(ServerConnection connection, ReadPlayerMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                byte[] b = FileLocker.readBytes(new File(new File(message.world, "playerdata"), message.uuid + ".dat"));
-                connection.sendReply(new DataMessageReply(b), message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        File file = new File(new File(message.world, "playerdata"), message.uuid + ".dat");
+        PlayerDataCache.read(file, message.uuid).thenAccept(b -> {
+            connection.sendReply(new DataMessageReply(b), message);
+        }).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
         });
     }
 }
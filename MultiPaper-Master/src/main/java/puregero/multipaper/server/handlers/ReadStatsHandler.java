@@ -2,22 +2,19 @@ package puregero.multipaper.server.handlers;
 
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadStatsMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
-import puregero.multipaper.server.FileLocker;
+import puregero.multipaper.server.PlayerDataCache;
 import puregero.multipaper.server.ServerConnection;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class ReadStatsHandler {
     public static void handle(ServerConnection connection, ReadStatsMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                byte[] b = FileLocker.readBytes(new File(new File(message.world, "stats"), message.uuid + ".json"));
-                connection.sendReply(new DataMessageReply(b), message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        File file = new File(new File(message.world, "stats"), message.uuid + ".json");
+        PlayerDataCache.read(file, message.uuid).thenAccept(b -> {
+            connection.sendReply(new DataMessageReply(b), message);
+        }).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
         });
     }
 }
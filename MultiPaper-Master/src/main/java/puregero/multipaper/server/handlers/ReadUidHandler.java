@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.ReadUidMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,10 +13,11 @@ import java.util.concurrent.CompletableFuture;
 
 public class ReadUidHandler {
     public static void handle(ServerConnection connection, ReadUidMessage message) {
+        File file = new File(message.world, "uid.dat");
         CompletableFuture.runAsync(() -> {
             try {
                 try {
-                    byte[] b = Files.readAllBytes(new File(message.world, "uid.dat").toPath());
+                    byte[] b = Files.readAllBytes(file.toPath());
                     connection.sendReply(new DataMessageReply(b), message);
                 } catch (NoSuchFileException e) {
                     connection.sendReply(new DataMessageReply(new byte[0]), message);
@@ -23,6 +25,6 @@ public class ReadUidHandler {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE_READ.orderedBy(file));
     }
 }
@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.RequestEntityIdBlock;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.IntegerPairMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -31,7 +32,7 @@ public class RequestEntityIdBlockHandler {
 
         queueLastBlockSave = true;
         if (lastBlockWriteInProgress.isDone()) {
-            lastBlockWriteInProgress = lastBlockWriteInProgress.thenRunAsync(RequestEntityIdBlockHandler::saveLastBlock);
+            lastBlockWriteInProgress = lastBlockWriteInProgress.thenRunAsync(RequestEntityIdBlockHandler::saveLastBlock, IOScheduler.FILE);
         }
     }
 
@@ -3,27 +3,32 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.RequestFilesToSyncMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.FilesToSyncMessage;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class RequestFilesToSyncHandler {
     public static void handle(ServerConnection connection, RequestFilesToSyncMessage message) {
-        List<File> files = new ArrayList<>();
+        // Walking the synced files can take a while, keep it off the event loop
+        CompletableFuture.runAsync(() -> {
+            List<File> files = new ArrayList<>();
 
-        appendFilesRecursively(new File("synced-server-files"), files);
+            appendFilesRecursively(new File("synced-server-files"), files);
 
-        FilesToSyncMessage.FileToSync[] filesToSync = new FilesToSyncMessage.FileToSync[files.size()];
-        for (int i = 0; i < filesToSync.length; i ++) {
-            File file = files.get(i);
-            filesToSync[i] = new FilesToSyncMessage.FileToSync(
-                file.getPath().replace("synced-server-files/", "").replace("synced-server-files\\", ""),
-                file.lastModified()
-            );
-        }
+            FilesToSyncMessage.FileToSync[] filesToSync = new FilesToSyncMessage.FileToSync[files.size()];
+            for (int i = 0; i < filesToSync.length; i ++) {
+                File file = files.get(i);
+                filesToSync[i] = new FilesToSyncMessage.FileToSync(
+                    file.getPath().replace("synced-server-files/", "").replace("synced-server-files\\", ""),
+                    file.lastModified()
+                );
+            }
 
-        connection.sendReply(new FilesToSyncMessage(filesToSync), message);
+            connection.sendReply(new FilesToSyncMessage(filesToSync), message);
+        }, IOScheduler.BULK);
     }
 
     private static void appendFilesRecursively(File file, List<File> files) {
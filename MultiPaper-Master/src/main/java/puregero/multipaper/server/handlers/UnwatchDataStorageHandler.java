@@ -0,0 +1,11 @@
+package puregero.multipaper.server.handlers;
+
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.UnwatchDataStorageMessage;
+import puregero.multipaper.server.DataStorageWatchers;
+import puregero.multipaper.server.ServerConnection;
+
+public class UnwatchDataStorageHandler {
+    public static void handle(ServerConnection connection, UnwatchDataStorageMessage message) {
+        DataStorageWatchers.unwatch(connection, message.prefix);
+    }
+}
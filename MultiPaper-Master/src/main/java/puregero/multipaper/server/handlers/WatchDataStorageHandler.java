@@ -0,0 +1,32 @@
+package puregero.multipaper.server.handlers;
+
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WatchDataStorageMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataStorageWatchMessageReply;
+import puregero.multipaper.server.DataStorage;
+import puregero.multipaper.server.DataStorageWatchers;
+import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
+
+import java.util.concurrent.CompletableFuture;
+
+public class WatchDataStorageHandler {
+    public static void handle(ServerConnection connection, WatchDataStorageMessage message) {
+        if (DataStorage.isLoaded()) {
+            watch(connection, message);
+        } else {
+            CompletableFuture.runAsync(() -> watch(connection, message), IOScheduler.FILE).exceptionally(throwable -> {
+                throwable.printStackTrace();
+                return null;
+            });
+        }
+    }
+
+    private static void watch(ServerConnection connection, WatchDataStorageMessage message) {
+        DataStorage.load();
+
+        // Start watching before listing, so that no update can fall in between. An update sent before the
+        // listing can still arrive after it, the versions let the server tell which one is newer
+        DataStorageWatchers.watch(connection, message.prefix);
+        connection.sendReply(new DataStorageWatchMessageReply(DataStorage.listVersions(message.prefix)), message);
+    }
+}
@@ -2,23 +2,15 @@ package puregero.multipaper.server.handlers;
 
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WriteAdvancementsMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanMessageReply;
-import puregero.multipaper.server.FileLocker;
+import puregero.multipaper.server.PlayerDataCache;
 import puregero.multipaper.server.ServerConnection;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class WriteAdvancementsHandler {
     public static void handle(ServerConnection connection, WriteAdvancementsMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                FileLocker.writeBytes(new File(new File(message.world, "advancements"), message.uuid + ".json"), message.data);
-
-                connection.sendReply(new BooleanMessageReply(true), message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        File file = new File(new File(message.world, "advancements"), message.uuid + ".json");
+        PlayerDataCache.write(file, message.uuid, message.data);
+        connection.sendReply(new BooleanMessageReply(true), message);
     }
 }
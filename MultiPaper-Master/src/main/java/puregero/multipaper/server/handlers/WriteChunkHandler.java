@@ -5,7 +5,7 @@ import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanM
 import puregero.multipaper.server.ChunkLockManager;
 import puregero.multipaper.server.EntitiesLockManager;
 import puregero.multipaper.server.ServerConnection;
-import puregero.multipaper.server.util.RegionFileCache;
+import puregero.multipaper.server.util.ChunkCache;
 import se.llbit.nbt.CompoundTag;
 import se.llbit.nbt.ListTag;
 import se.llbit.nbt.SpecificTag;
@@ -15,6 +15,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public class WriteChunkHandler {
     public static void handle(ServerConnection connection, WriteChunkMessage message) {
@@ -27,21 +28,24 @@ public class WriteChunkHandler {
     }
 
     private static void writeData(ServerConnection connection, WriteChunkMessage message, byte[] data) {
-        RegionFileCache.putChunkDeflatedDataAsync(ReadChunkHandler.getWorldDir(message.world, message.path), message.cx, message.cz, data).thenRun(() -> {
-            if (message.path.equals("region")) {
-                ChunkLockManager.writtenChunk(message.world, message.cx, message.cz);
-            }
+        // Writes to the same chunk are coalesced by the cache, every one of them still gets its reply
+        CompletableFuture<Void> persisted = ChunkCache.putChunkDeflatedDataAsync(message.world, message.path, message.cx, message.cz, data);
 
-            if (message.path.equals("entities")) {
-                EntitiesLockManager.writtenChunk(message.world, message.cx, message.cz);
-            }
+        // Reads are served from the cache, so they can see this write straight away
+        if (message.path.equals("region")) {
+            ChunkLockManager.writtenChunk(message.world, message.cx, message.cz);
+        }
 
-            connection.sendReply(new BooleanMessageReply(true), message);
-        });
+        if (message.path.equals("entities")) {
+            EntitiesLockManager.writtenChunk(message.world, message.cx, message.cz);
+        }
+
+        // A failed write is retried by the cache, but the server must not think it's been saved yet
+        persisted.whenComplete((value, throwable) -> connection.sendReply(new BooleanMessageReply(throwable == null), message));
     }
 
     private static void handleTransientEntities(ServerConnection connection, WriteChunkMessage message) {
-        RegionFileCache.getChunkDeflatedDataAsync(ReadChunkHandler.getWorldDir(message.world, message.path), message.cx, message.cz).thenAccept(data -> {
+        ChunkCache.getChunkDeflatedDataAsync(message.world, message.path, message.cx, message.cz).thenAccept(data -> {
             CompoundTag transientEntities = CompoundTag.read(new DataInputStream(new ByteArrayInputStream(message.data))).asCompound();
 
             if (data != null) {
@@ -5,27 +5,29 @@ import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanM
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataUpdateMessage;
 import puregero.multipaper.server.FileLocker;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class WriteDataHandler {
     public static void handle(ServerConnection connection, WriteDataMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                FileLocker.writeBytes(new File(message.path), message.data);
-                connection.sendReply(new BooleanMessageReply(true), message);
+        File file = new File(message.path);
 
-                if (message.path.contains("scoreboard")) {
-                    // Scoreboards are synced with other methods
-                    return;
-                }
-
-                connection.broadcastOthers(new DataUpdateMessage(message.path, message.data));
-            } catch (IOException e) {
-                e.printStackTrace();
+        // Reads see these bytes straight away, and the other servers get the updates in the order they were sent
+        FileLocker.writeBytesAsync(file, message.data, IOScheduler.FILE).whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                throwable.printStackTrace();
+                return;
             }
+
+            connection.sendReply(new BooleanMessageReply(true), message);
         });
+
+        if (message.path.contains("scoreboard")) {
+            // Scoreboards are synced with other methods
+            return;
+        }
+
+        connection.broadcastOthers(new DataUpdateMessage(message.path, message.data));
     }
 }
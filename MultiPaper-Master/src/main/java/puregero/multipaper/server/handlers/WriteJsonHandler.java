@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WriteJsonMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -15,6 +16,7 @@ public class WriteJsonHandler {
     private static final Object writingLock = new Object();
 
     public static void handle(ServerConnection connection, WriteJsonMessage message) {
+        File file = new File(message.file);
         CompletableFuture.runAsync(() -> {
             try {
                 synchronized (writingLock) {
@@ -22,7 +24,7 @@ public class WriteJsonHandler {
                         writesInProgress.put(message.file, message.data);
                     }
 
-                    Files.write(new File(message.file).toPath(), message.data);
+                    Files.write(file.toPath(), message.data);
 
                     synchronized (writesInProgress) {
                         writesInProgress.remove(message.file);
@@ -33,6 +35,6 @@ public class WriteJsonHandler {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE.orderedBy(file));
     }
 }
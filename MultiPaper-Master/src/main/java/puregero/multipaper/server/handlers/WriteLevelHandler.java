@@ -3,6 +3,7 @@ package puregero.multipaper.server.handlers;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WriteLevelMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanMessageReply;
 import puregero.multipaper.server.ServerConnection;
+import puregero.multipaper.server.util.IOScheduler;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,15 +12,16 @@ import java.util.concurrent.CompletableFuture;
 
 public class WriteLevelHandler {
     public static void handle(ServerConnection connection, WriteLevelMessage message) {
+        File file = new File(message.world, "level.dat");
         CompletableFuture.runAsync(() -> {
             try {
-                File worldDir = new File(message.world);
+                File worldDir = file.getParentFile();
                 if (!worldDir.exists()) worldDir.mkdirs();
-                Files.write(new File(worldDir, "level.dat").toPath(), message.data);
+                Files.write(file.toPath(), message.data);
                 connection.sendReply(new BooleanMessageReply(true), message);
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        });
+        }, IOScheduler.FILE.orderedBy(file));
     }
 }
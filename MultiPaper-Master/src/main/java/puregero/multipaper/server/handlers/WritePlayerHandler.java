@@ -2,22 +2,15 @@ package puregero.multipaper.server.handlers;
 
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WritePlayerMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.BooleanMessageReply;
-import puregero.multipaper.server.FileLocker;
+import puregero.multipaper.server.PlayerDataCache;
 import puregero.multipaper.server.ServerConnection;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.CompletableFuture;
 
 public class WritePlayerHandler {
     public static void handle(ServerConnection connection, WritePlayerMessage message) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                FileLocker.writeBytes(new File(new File(message.world, "playerdata"), message.uuid + ".dat"), message.data);
-                connection.sendReply(new BooleanMessageReply(true), message);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        File file = new File(new File(message.world, "playerdata"), message.uuid + ".dat");
+        PlayerDataCache.write(file, message.uuid, message.data);
+        connection.sendReply(new BooleanMessageReply(true), message);
     }
 }
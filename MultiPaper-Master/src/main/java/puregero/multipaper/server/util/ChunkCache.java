@@ -0,0 +1,324 @@
+package puregero.multipaper.server.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of deflated chunks in front of the region files, bounded
+ * by the number of bytes it holds. Chunks that were just written are served
+ * straight from memory, which is what happens on every ownership handoff.
+ *
+ * A write is visible to reads as soon as it has been cached. By default it
+ * only completes once it has been persisted to the region file, with
+ * -Dchunk.cache.writeback=true it completes straight away and is flushed in
+ * the background. Writes to a chunk are coalesced: a queued flush writes
+ * whatever the latest data is when it runs, and writes that arrive while a
+ * flush is running share one more flush. A chunk can't be evicted until it
+ * has been flushed, so with -Dchunk.cache.size.mb=0 only the chunks with
+ * pending writes are kept in memory. A failed flush is retried with an
+ * increasing delay until it succeeds.
+ */
+public class ChunkCache {
+
+    private static final long MAX_BYTES = Long.getLong("chunk.cache.size.mb", 128L) * 1024 * 1024;
+    private static final boolean WRITE_BACK = Boolean.getBoolean("chunk.cache.writeback");
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60 * 1000;
+
+    private static final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder coalescedWrites = new LongAdder();
+    private static final LongAdder failedFlushes = new LongAdder();
+
+    static {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(MAX_BYTES / SEGMENT_COUNT);
+        }
+    }
+
+    private ChunkCache() {
+    }
+
+    private record Key(String world, String path, int x, int z) {}
+
+    private static class Entry {
+        private byte[] data; // null if the chunk doesn't exist
+        private boolean loaded = false;
+        private CompletableFuture<byte[]> loading;
+        private long version = 0;
+        private long persistedVersion = 0;
+        private CompletableFuture<Void> flushing;
+        private boolean flushStarted = false;
+        private CompletableFuture<Void> nextFlush;
+        private long retryMillis = 0; // 0 unless the last flush failed
+        private boolean retryScheduled = false;
+
+        private boolean isDirty() {
+            return version != persistedVersion;
+        }
+
+        private int size() {
+            return ENTRY_OVERHEAD + (data == null ? 0 : data.length);
+        }
+    }
+
+    private static class Segment {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private long bytes = 0;
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /* evict the least recently used chunks that have been flushed until we're back under budget */
+        private synchronized void evictIfFull() {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.loaded && !entry.isDirty() && entry.flushing == null) {
+                    iterator.remove();
+                    bytes -= entry.size();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static Segment getSegment(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    public static CompletableFuture<byte[]> getChunkDeflatedDataAsync(String world, String path, int cx, int cz) {
+        Key key = new Key(world, path, cx, cz);
+        Segment segment = getSegment(key);
+        Entry entry;
+        CompletableFuture<byte[]> load;
+
+        synchronized (segment) {
+            entry = segment.entries.get(key);
+            if (entry != null && entry.loaded) {
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.data);
+            }
+
+            if (entry != null && entry.loading != null) {
+                // Someone else is already reading it from the disk
+                hits.increment();
+                return entry.loading;
+            }
+
+            misses.increment();
+            load = new CompletableFuture<>();
+            entry = new Entry();
+            entry.loading = load;
+            segment.entries.put(key, entry);
+        }
+
+        Entry loadingEntry = entry;
+        RegionFileCache.getChunkDeflatedDataAsync(world, path, cx, cz).whenComplete((data, throwable) -> {
+            synchronized (segment) {
+                loadingEntry.loading = null;
+                if (!loadingEntry.loaded) {
+                    if (throwable == null) {
+                        loadingEntry.data = data;
+                        loadingEntry.loaded = true;
+                        segment.bytes += loadingEntry.size();
+                    } else {
+                        segment.entries.remove(key, loadingEntry);
+                    }
+                }
+                // else it has been written to while we were reading it, keep the newer data
+            }
+            segment.evictIfFull();
+
+            if (throwable != null) {
+                load.completeExceptionally(throwable);
+            } else {
+                load.complete(data);
+            }
+        });
+
+        return load;
+    }
+
+    /**
+     * Cache the chunk and flush it to the region file.
+     * @return A future that completes once the chunk has been persisted, or
+     *         straight away when write-back is enabled
+     */
+    public static CompletableFuture<Void> putChunkDeflatedDataAsync(String world, String path, int cx, int cz, byte[] data) {
+        Key key = new Key(world, path, cx, cz);
+        Segment segment = getSegment(key);
+        CompletableFuture<Void> persisted;
+
+        synchronized (segment) {
+            Entry entry = segment.entries.computeIfAbsent(key, k -> new Entry());
+            if (entry.loaded) {
+                segment.bytes -= entry.size();
+            }
+            // An empty chunk clears it from the region file, which reads back as null
+            entry.data = data.length == 0 ? null : data;
+            entry.loaded = true;
+            entry.version++;
+            segment.bytes += entry.size();
+
+            persisted = flush(segment, key, entry);
+        }
+        segment.evictIfFull();
+
+        return WRITE_BACK ? CompletableFuture.completedFuture(null) : persisted;
+    }
+
+    /* must be called while holding the lock on the segment */
+    private static CompletableFuture<Void> flush(Segment segment, Key key, Entry entry) {
+        if (entry.flushing != null && !entry.flushStarted) {
+            // The queued flush hasn't fetched its data yet, it'll write this data instead
+            coalescedWrites.increment();
+            return entry.flushing;
+        }
+
+        if (entry.flushing != null) {
+            // Write the latest data once the current flush is done
+            if (entry.nextFlush == null) {
+                entry.nextFlush = new CompletableFuture<>();
+            } else {
+                coalescedWrites.increment();
+            }
+            return entry.nextFlush;
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        startFlush(segment, key, entry, done);
+        return done;
+    }
+
+    /* must be called while holding the lock on the segment */
+    private static void startFlush(Segment segment, Key key, Entry entry, CompletableFuture<Void> done) {
+        long[] flushedVersion = new long[1];
+        entry.flushing = done;
+        entry.flushStarted = false;
+        flushes.increment();
+
+        RegionFileCache.putChunkDeflatedDataAsync(key.world, key.path, key.x, key.z, () -> {
+            synchronized (segment) {
+                entry.flushStarted = true;
+                flushedVersion[0] = entry.version;
+                return entry.data == null ? new byte[0] : entry.data;
+            }
+        }).whenComplete((value, throwable) -> {
+            long retryMillis;
+            synchronized (segment) {
+                if (throwable == null && flushedVersion[0] > entry.persistedVersion) {
+                    entry.persistedVersion = flushedVersion[0];
+                }
+
+                if (throwable == null) {
+                    entry.retryMillis = 0;
+                } else {
+                    entry.retryMillis = Math.min(MAX_RETRY_MILLIS, Math.max(MIN_RETRY_MILLIS, entry.retryMillis * 2));
+                }
+
+                entry.flushing = null;
+                if (entry.nextFlush != null) {
+                    CompletableFuture<Void> nextFlush = entry.nextFlush;
+                    entry.nextFlush = null;
+                    startFlush(segment, key, entry, nextFlush);
+                } else if (throwable != null && !entry.retryScheduled) {
+                    scheduleRetry(segment, key, entry);
+                }
+                retryMillis = entry.retryMillis;
+            }
+            segment.evictIfFull();
+
+            if (throwable != null) {
+                failedFlushes.increment();
+                System.err.println("Failed to flush chunk " + key.x + "," + key.z + " in " + key.world + "/" + key.path + ", retrying in " + retryMillis + "ms");
+                throwable.printStackTrace();
+                done.completeExceptionally(throwable);
+            } else {
+                done.complete(null);
+            }
+        });
+    }
+
+    /* must be called while holding the lock on the segment */
+    private static void scheduleRetry(Segment segment, Key key, Entry entry) {
+        entry.retryScheduled = true;
+        CompletableFuture.delayedExecutor(entry.retryMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (segment) {
+                entry.retryScheduled = false;
+                if (entry.flushing == null && entry.isDirty()) {
+                    // The write-through callers have already been told that it failed, no one waits on this
+                    startFlush(segment, key, entry, new CompletableFuture<>());
+                }
+            }
+        });
+    }
+
+    /**
+     * Flush every chunk that hasn't been persisted yet.
+     */
+    public static CompletableFuture<Void> flushAll() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Key, Entry> entry : segment.entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.nextFlush != null) {
+                        futures.add(value.nextFlush);
+                    } else if (value.flushing != null) {
+                        futures.add(value.flushing);
+                    } else if (value.isDirty()) {
+                        futures.add(flush(segment, entry.getKey(), value));
+                    }
+                }
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    public static long getFlushes() {
+        return flushes.sum();
+    }
+
+    public static long getCoalescedWrites() {
+        return coalescedWrites.sum();
+    }
+
+    public static String getStats() {
+        long bytes = 0;
+        int chunks = 0;
+        int dirty = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+                chunks += segment.entries.size();
+                for (Entry entry : segment.entries.values()) {
+                    if (entry.isDirty()) {
+                        dirty++;
+                    }
+                }
+            }
+        }
+
+        return String.format("Chunk cache: %d chunks (%d dirty), %.1f/%dMB, %d hits, %d misses, %d evictions, %d flushes (%d failed), %d coalesced writes%s",
+                chunks, dirty, bytes / 1024.0 / 1024.0, MAX_BYTES / 1024 / 1024, hits.sum(), misses.sum(), evictions.sum(), flushes.sum(), failedFlushes.sum(), coalescedWrites.sum(), WRITE_BACK ? " (write-back)" : "");
+    }
+}
@@ -1,21 +1,25 @@
 package puregero.multipaper.server.util;
 
-import puregero.multipaper.mastermessagingprotocol.ChunkKey;
-
 public class ChunkLock {
 
-    private static final int LOCK_COUNT = 64;
-    private static final int LOCK_COUNT_MASK = 63;
-    private static final Object[] locks = new Object[LOCK_COUNT];
+    private static final StripedLock locks = new StripedLock("Chunk", Integer.getInteger("chunk.lock.stripes", StripedLock.defaultStripes()));
+
+    public static final int LOCK_COUNT = locks.getStripeCount();
+
+    public static int getLockIndex(String world, int cx, int cz) {
+        return locks.getStripe(world, cx, cz);
+    }
+
+    public static void lock(int lockIndex) {
+        locks.lock(lockIndex);
+    }
 
-    static {
-        for (int i = 0; i < locks.length; i++) {
-            locks[i] = new Object();
-        }
+    public static void unlock(int lockIndex) {
+        locks.unlock(lockIndex);
     }
 
-    public static Object getChunkLock(ChunkKey key) {
-        return locks[key.hashCode() & LOCK_COUNT_MASK];
+    public static String getStats() {
+        return locks.toString();
     }
 
 }
@@ -1,21 +1,23 @@
 package puregero.multipaper.server.util;
 
-import puregero.multipaper.mastermessagingprotocol.ChunkKey;
-
 public class EntitiesLock {
 
-    private static final int LOCK_COUNT = 64;
-    private static final int LOCK_COUNT_MASK = 63;
-    private static final Object[] locks = new Object[LOCK_COUNT];
+    private static final StripedLock locks = new StripedLock("Entities", Integer.getInteger("entities.lock.stripes", StripedLock.defaultStripes()));
+
+    public static int getLockIndex(String world, int cx, int cz) {
+        return locks.getStripe(world, cx, cz);
+    }
+
+    public static void lock(int lockIndex) {
+        locks.lock(lockIndex);
+    }
 
-    static {
-        for (int i = 0; i < locks.length; i++) {
-            locks[i] = new Object();
-        }
+    public static void unlock(int lockIndex) {
+        locks.unlock(lockIndex);
     }
 
-    public static Object getEntitiesLock(ChunkKey key) {
-        return locks[key.hashCode() & LOCK_COUNT_MASK];
+    public static String getStats() {
+        return locks.toString();
     }
 
 }
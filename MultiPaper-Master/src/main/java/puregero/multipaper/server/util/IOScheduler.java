@@ -0,0 +1,191 @@
+package puregero.multipaper.server.util;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded thread pools for the master's blocking disk I/O, so that it doesn't
+ * starve the common ForkJoinPool. Chunk reads, chunk writes, file reads, file
+ * writes and bulk transfers of synced files each get their own pool, so a
+ * player waiting on a chunk or their player data never queues up behind an
+ * autosave or an upload.
+ */
+public class IOScheduler implements Executor {
+
+    private static final int DEFAULT_READ_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    // The lower priorities are only a hint, most Linux JVMs ignore thread priorities
+    public static final IOScheduler CHUNK_READ = new IOScheduler("Chunk Read", Integer.getInteger("io.chunk.read.threads", DEFAULT_READ_THREADS), Thread.NORM_PRIORITY);
+    public static final IOScheduler CHUNK_WRITE = new IOScheduler("Chunk Write", Integer.getInteger("io.chunk.write.threads", 2), Thread.NORM_PRIORITY - 1);
+    public static final IOScheduler FILE_READ = new IOScheduler("File Read", Integer.getInteger("io.file.read.threads", 2), Thread.NORM_PRIORITY);
+    public static final IOScheduler FILE = new IOScheduler("File", Integer.getInteger("io.file.threads", 2), Thread.NORM_PRIORITY);
+    public static final IOScheduler BULK = new IOScheduler("Bulk", Integer.getInteger("io.bulk.threads", 1), Thread.NORM_PRIORITY - 1);
+
+    private static final IOScheduler[] SCHEDULERS = { CHUNK_READ, CHUNK_WRITE, FILE_READ, FILE, BULK };
+
+    // Tasks waiting for an earlier task with the same key to finish, shared by every pool
+    private static final Map<Object, Queue<Runnable>> orderedTasks = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private IOScheduler(String name, int threads, int priority) {
+        this.name = name;
+
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "MultiPaper " + name + " Thread #" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        long submitted = System.nanoTime();
+        queued.incrementAndGet();
+        executor.execute(() -> {
+            queued.decrementAndGet();
+
+            long wait = System.nanoTime() - submitted;
+            totalWaitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+
+            try {
+                runnable.run();
+            } finally {
+                completed.increment();
+            }
+        });
+    }
+
+    /**
+     * Tasks submitted with equal keys run one at a time in the order they were
+     * submitted, even when they were submitted to different pools. Used so
+     * that a read of a file can't overtake a queued write to it.
+     */
+    public Executor orderedBy(Object key) {
+        return runnable -> submitOrdered(key, () -> execute(() -> {
+            try {
+                runnable.run();
+            } finally {
+                submitNextOrdered(key);
+            }
+        }));
+    }
+
+    private static void submitOrdered(Object key, Runnable submit) {
+        boolean[] idle = new boolean[1];
+        orderedTasks.compute(key, (k, waiting) -> {
+            if (waiting == null) {
+                idle[0] = true;
+                return new ArrayDeque<>();
+            }
+            waiting.add(submit);
+            return waiting;
+        });
+
+        if (idle[0]) {
+            submit.run();
+        }
+    }
+
+    private static void submitNextOrdered(Object key) {
+        Runnable[] next = new Runnable[1];
+        orderedTasks.computeIfPresent(key, (k, waiting) -> {
+            next[0] = waiting.poll();
+            return next[0] == null ? null : waiting;
+        });
+
+        if (next[0] != null) {
+            next[0].run();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public boolean isIdle() {
+        return queued.get() == 0 && executor.getActiveCount() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s executor: %d queued, %d active, %d completed, %.2fms avg wait, %.2fms max wait",
+                name, getQueueDepth(), getActiveCount(), getCompletedCount(), getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    public static IOScheduler[] getSchedulers() {
+        return SCHEDULERS.clone();
+    }
+
+    private static boolean allIdle() {
+        for (IOScheduler scheduler : SCHEDULERS) {
+            if (!scheduler.isIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for every I/O pool to run out of work.
+     * @return false if there was still work queued after the timeout
+     */
+    public static boolean awaitIdle(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!allIdle()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
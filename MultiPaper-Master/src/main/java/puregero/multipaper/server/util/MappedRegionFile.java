@@ -0,0 +1,364 @@
+package puregero.multipaper.server.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A region file engine that memory-maps the header and the sector data through
+ * a FileChannel. Reads don't take any locks: they work off an immutable
+ * snapshot of the offset table and a per-chunk write sequence that tells them
+ * to retry if the chunk was rewritten while they were reading it. Writes are
+ * still ordered through {@link #submitTask}.
+ */
+public class MappedRegionFile extends RegionFile {
+
+    private static final int HEADER_BYTES = SECTOR_BYTES * 2;
+
+    // Only remap the sector data once this much of the file has been appended since the last map
+    private static final long REMAP_THRESHOLD = 1024 * 1024;
+
+    private static final int MAX_READ_ATTEMPTS = 4;
+
+    // Returned by a lock-free read that kept on racing with writers
+    private static final byte[] RETRY = new byte[0];
+
+    private final File path;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private volatile MappedByteBuffer data;
+    private volatile long mappedLength;
+    private volatile int[] offsets = new int[SECTOR_INTS];
+
+    // Odd while a chunk is being written, incremented once before and once after each write
+    private final AtomicIntegerArray writeSequence = new AtomicIntegerArray(SECTOR_INTS);
+
+    // Only modified by writers while holding the lock on this
+    private SectorBitmap sectors;
+    private volatile long fileLength;
+
+    // Lock-free readers in progress, the file can't be truncated underneath them
+    private final AtomicInteger activeReaders = new AtomicInteger();
+    private volatile boolean closing = false;
+
+    public MappedRegionFile(File path) {
+        super(path);
+        this.path = path;
+
+        try {
+            channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileLength = channel.size();
+
+            if (fileLength < HEADER_BYTES) {
+                /* we need to write the chunk offset table and the timestamp info */
+                writeFully(ByteBuffer.allocate((int) (HEADER_BYTES - fileLength)), fileLength);
+                fileLength = HEADER_BYTES;
+
+                addSizeDelta(HEADER_BYTES);
+            }
+
+            if ((fileLength & 0xfff) != 0) {
+                /* the file size is not a multiple of 4KB, grow it */
+                long newLength = (fileLength / SECTOR_BYTES + 1) * SECTOR_BYTES;
+                writeFully(ByteBuffer.allocate((int) (newLength - fileLength)), fileLength);
+                fileLength = newLength;
+            }
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            remap();
+
+            /* set up the available sector map */
+            int nSectors = (int) (fileLength / SECTOR_BYTES);
+            sectors = new SectorBitmap(nSectors);
+            sectors.markUsed(0, 2); // chunk offset table and the last modified info
+
+            int[] offsets = new int[SECTOR_INTS];
+            for (int i = 0; i < SECTOR_INTS; ++i) {
+                int offset = header.getInt(i * 4);
+                offsets[i] = offset;
+                if (offset != 0 && (offset >>> 8) + (offset & 0xFF) <= sectors.size()) {
+                    sectors.markUsed(offset >>> 8, offset & 0xFF);
+                }
+            }
+            this.offsets = offsets;
+        } catch (IOException e) {
+            // Fail the open instead of handing out a region file that can't be used, so that it's tried again
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void remap() throws IOException {
+        long length = Math.min(fileLength, Integer.MAX_VALUE);
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        mappedLength = length;
+    }
+
+    @Override
+    public byte[] getDeflatedBytes(int x, int z) {
+        activeReaders.incrementAndGet();
+        try {
+            if (!closing) {
+                byte[] result = readLockFree(x, z);
+                if (result != RETRY) {
+                    return result;
+                }
+            }
+        } finally {
+            activeReaders.decrementAndGet();
+        }
+
+        // The chunk keeps on being rewritten, wait for the writer instead
+        synchronized (this) {
+            try {
+                return readChunk(x, z, offsets[getIndex(x, z)]);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private byte[] readLockFree(int x, int z) {
+        int index = getIndex(x, z);
+
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequence = writeSequence.get(index);
+            if ((sequence & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            try {
+                byte[] result = readChunk(x, z, offsets[index]);
+
+                VarHandle.acquireFence();
+                if (writeSequence.get(index) == sequence) {
+                    return result;
+                }
+            } catch (IOException | RuntimeException e) {
+                // The chunk was probably moved while we were reading it, the sequence check will tell
+                VarHandle.acquireFence();
+                if (writeSequence.get(index) == sequence) {
+                    return null;
+                }
+            }
+        }
+
+        return RETRY;
+    }
+
+    private byte[] readChunk(int x, int z, int offset) throws IOException {
+        if (offset == 0) {
+            return null;
+        }
+
+        int sectorNumber = offset >>> 8;
+        int numSectors = offset & 0xFF;
+        long position = (long) sectorNumber * SECTOR_BYTES;
+
+        if (position + (long) numSectors * SECTOR_BYTES > fileLength) {
+            return null;
+        }
+
+        byte[] chunkHeader = new byte[CHUNK_HEADER_SIZE];
+        read(position, chunkHeader);
+        int length = ByteBuffer.wrap(chunkHeader).getInt();
+
+        if (length > SECTOR_BYTES * numSectors || length < 1) {
+            return null;
+        }
+
+        byte version = chunkHeader[4];
+        byte[] chunkData = new byte[length - 1];
+        read(position + CHUNK_HEADER_SIZE, chunkData);
+        return decodeChunkData(x, z, version, chunkData);
+    }
+
+    private void read(long position, byte[] dst) throws IOException {
+        MappedByteBuffer data = this.data;
+        if (position + dst.length <= data.capacity()) {
+            data.get((int) position, dst);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(dst);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of region file");
+                }
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    @Override
+    public synchronized void putDeflatedBytes(int x, int z, byte[] b) {
+        write(x, z, b, b.length);
+    }
+
+    @Override
+    public synchronized void clear(int x, int z) throws IOException {
+        int index = getIndex(x, z);
+        writeSequence.incrementAndGet(index);
+        try {
+            clearWhileWriting(x, z);
+        } finally {
+            writeSequence.incrementAndGet(index);
+        }
+    }
+
+    private void clearWhileWriting(int x, int z) throws IOException {
+        int offset = offsets[getIndex(x, z)];
+
+        if (offset != 0) {
+            int sectorNumber = offset >>> 8;
+            int sectorsAllocated = offset & 0xFF;
+            setOffset(x, z, 0);
+            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+            sectors.markFree(sectorNumber, sectorsAllocated);
+        }
+
+        Files.deleteIfExists(getExternalChunkPath(x, z));
+    }
+
+    @Override
+    protected synchronized void write(int x, int z, byte[] data, int length) {
+        int index = getIndex(x, z);
+        writeSequence.incrementAndGet(index);
+        try {
+            if (length == 0) {
+                clearWhileWriting(x, z);
+                return;
+            }
+
+            int offset = offsets[index];
+            int sectorNumber = offset >>> 8;
+            int sectorsAllocated = offset & 0xFF;
+            int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+            boolean externalFile = false;
+
+            // maximum chunk size is 1MB
+            if (sectorsNeeded >= 256) {
+                externalFile = true;
+                sectorsNeeded = 1;
+            }
+
+            if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
+                /* we can simply overwrite the old sectors */
+                write(x, z, sectorNumber, sectorsNeeded, data, length, externalFile);
+            } else {
+                /* mark the sectors previously used for this chunk as free */
+                if (sectorNumber != 0) {
+                    sectors.markFree(sectorNumber, sectorsAllocated);
+                }
+
+                /* take the first free space large enough, the file grows when the data is written */
+                int oldSize = sectors.size();
+                sectorNumber = sectors.allocate(sectorsNeeded);
+                if (sectors.size() > oldSize) {
+                    addSizeDelta(SECTOR_BYTES * (sectors.size() - oldSize));
+                }
+
+                write(x, z, sectorNumber, sectorsNeeded, data, length, externalFile);
+                setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+            }
+            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writeSequence.incrementAndGet(index);
+        }
+    }
+
+    /* write a chunk data to the region file at specified sector number, padding it out to whole sectors */
+    private void write(int x, int z, int sectorNumber, int sectorCount, byte[] data, int length, boolean externalFile) throws IOException {
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(sectorCount * SECTOR_BYTES);
+
+        if (externalFile) {
+            writeExternalFile(x, z, data);
+            buffer.putInt(1); // chunk length
+            buffer.put(VERSION_DEFLATE_EXTERNAL); // chunk version number (external file)
+        } else {
+            buffer.putInt(length + 1); // chunk length
+            buffer.put(VERSION_DEFLATE); // chunk version number
+            buffer.put(data, 0, length); // chunk data
+        }
+
+        buffer.clear();
+        writeFully(buffer, position);
+
+        if (position + buffer.capacity() > fileLength) {
+            fileLength = position + buffer.capacity();
+            if (fileLength - mappedLength > REMAP_THRESHOLD && mappedLength < Integer.MAX_VALUE) {
+                remap();
+            }
+        }
+
+        if (!externalFile) {
+            Files.deleteIfExists(getExternalChunkPath(x, z));
+        }
+    }
+
+    @Override
+    public boolean hasChunk(int x, int z) {
+        return offsets[getIndex(x, z)] != 0;
+    }
+
+    private void setOffset(int x, int z, int offset) {
+        int[] newOffsets = offsets.clone();
+        newOffsets[getIndex(x, z)] = offset;
+        header.putInt(getIndex(x, z) * 4, offset);
+        offsets = newOffsets;
+    }
+
+    private void setTimestamp(int x, int z, int value) {
+        header.putInt(SECTOR_BYTES + getIndex(x, z) * 4, value);
+    }
+
+    @Override
+    protected synchronized void closeFile() throws IOException {
+        /* wait for the lock-free readers to finish before dropping the free sectors at the end of the file */
+        closing = true;
+        while (activeReaders.get() > 0) {
+            Thread.onSpinWait();
+        }
+
+        // Drop the mappings before truncating, some platforms won't truncate a file that's still mapped
+        header = null;
+        data = null;
+        channel.close();
+
+        int oldSize = sectors.size();
+        sectors.truncate();
+        long newLength = (long) sectors.size() * SECTOR_BYTES;
+        if (newLength < fileLength) {
+            try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                file.setLength(newLength);
+                fileLength = newLength;
+                addSizeDelta(-SECTOR_BYTES * (oldSize - sectors.size()));
+            } catch (IOException e) {
+                // The old mapping is only released once it's garbage collected, the free sectors get reused next time instead
+                System.err.println("Couldn't drop the free sectors at the end of " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package puregero.multipaper.server.util;
+
+/*
+ ** 2011 January 5
+ **
+ ** The author disclaims copyright to this source code.  In place of
+ ** a legal notice, here is a blessing:
+ **
+ **    May you do good and not evil.
+ **    May you find forgiveness for yourself and forgive others.
+ **    May you share freely, never taking more than you give.
+ **/
+
+/*
+ * 2011 February 16
+ *
+ * This source code is based on the work of Scaevolus (see notice above).
+ * It has been slightly modified by Mojang AB (constants instead of magic
+ * numbers, a chunk timestamp header, and auto-formatted according to our
+ * formatter template).
+ *
+ */
+
+// Reads and writes the region file through a single RandomAccessFile
+
+import java.io.*;
+import java.nio.file.Files;
+
+public class RandomAccessRegionFile extends RegionFile {
+
+    private RandomAccessFile file;
+    private final int offsets[];
+    private final int chunkTimestamps[];
+    private SectorBitmap sectors;
+
+    public RandomAccessRegionFile(File path) {
+        super(path);
+
+        offsets = new int[SECTOR_INTS];
+        chunkTimestamps = new int[SECTOR_INTS];
+
+        try {
+            file = new RandomAccessFile(path, "rw");
+
+            if (file.length() < SECTOR_BYTES * 2) {
+                /* we need to write the chunk offset table */
+                for (int i = 0; i < SECTOR_INTS; ++i) {
+                    file.writeInt(0);
+                }
+                // write another sector for the timestamp info
+                for (int i = 0; i < SECTOR_INTS; ++i) {
+                    file.writeInt(0);
+                }
+
+                addSizeDelta(SECTOR_BYTES * 2);
+            }
+
+            if ((file.length() & 0xfff) != 0) {
+                /* the file size is not a multiple of 4KB, grow it */
+                file.setLength((file.length() / 4096 + 1) * 4096);
+            }
+
+            /* set up the available sector map */
+            int nSectors = (int) file.length() / SECTOR_BYTES;
+            sectors = new SectorBitmap(nSectors);
+            sectors.markUsed(0, 2); // chunk offset table and the last modified info
+
+            file.seek(0);
+            for (int i = 0; i < SECTOR_INTS; ++i) {
+                int offset = file.readInt();
+                offsets[i] = offset;
+                if (offset != 0 && (offset >>> 8) + (offset & 0xFF) <= sectors.size()) {
+                    sectors.markUsed(offset >>> 8, offset & 0xFF);
+                }
+            }
+            for (int i = 0; i < SECTOR_INTS; ++i) {
+                int lastModValue = file.readInt();
+                chunkTimestamps[i] = lastModValue;
+            }
+        } catch (IOException e) {
+            // Fail the open instead of handing out a region file that can't be used, so that it's tried again
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized byte[] getDeflatedBytes(int x, int z) {
+        try {
+            int offset = getOffset(x, z);
+            if (offset == 0) {
+                return null;
+            }
+
+            int sectorNumber = offset >>> 8;
+            int numSectors = offset & 0xFF;
+
+            if (sectorNumber + numSectors > sectors.size()) {
+                return null;
+            }
+
+            file.seek((long) sectorNumber * SECTOR_BYTES);
+            int length = file.readInt();
+
+            if (length > SECTOR_BYTES * numSectors) {
+                return null;
+            }
+
+            byte version = file.readByte();
+            byte[] data = new byte[length - 1];
+            file.read(data);
+            return decodeChunkData(x, z, version, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void putDeflatedBytes(int x, int z, byte[] b) {
+        write(x, z, b, b.length);
+    }
+
+    @Override
+    public synchronized void clear(int x, int z) throws IOException {
+        int offset = getOffset(x, z);
+
+        if (offset != 0) {
+            int sectorNumber = offset >>> 8;
+            int sectorsAllocated = offset & 0xFF;
+            setOffset(x, z, 0);
+            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+            sectors.markFree(sectorNumber, sectorsAllocated);
+        }
+
+        Files.deleteIfExists(getExternalChunkPath(x, z));
+    }
+
+    /* write a chunk at (x,z) with length bytes of data to disk */
+    @Override
+    protected synchronized void write(int x, int z, byte[] data, int length) {
+        try {
+            if (length == 0) {
+                clear(x, z);
+                return;
+            }
+            
+            int offset = getOffset(x, z);
+            int sectorNumber = offset >>> 8;
+            int sectorsAllocated = offset & 0xFF;
+            int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+            boolean externalFile = false;
+
+            // maximum chunk size is 1MB
+            if (sectorsNeeded >= 256) {
+                externalFile = true;
+                sectorsNeeded = 1;
+            }
+
+            if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
+                /* we can simply overwrite the old sectors */
+                write(x, z, sectorNumber, data, length, externalFile);
+            } else {
+                /* we need to allocate new sectors */
+
+                /* mark the sectors previously used for this chunk as free */
+                if (sectorNumber != 0) {
+                    sectors.markFree(sectorNumber, sectorsAllocated);
+                }
+
+                /* take the first free space large enough, growing the file if there isn't one */
+                int oldSize = sectors.size();
+                sectorNumber = sectors.allocate(sectorsNeeded);
+                if (sectors.size() > oldSize) {
+                    file.setLength((long) sectors.size() * SECTOR_BYTES);
+                    addSizeDelta(SECTOR_BYTES * (sectors.size() - oldSize));
+                }
+
+                write(x, z, sectorNumber, data, length, externalFile);
+                setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+            }
+            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* write a chunk data to the region file at specified sector number */
+    private void write(int x, int z, int sectorNumber, byte[] data, int length, boolean externalFile) throws IOException {
+        if (externalFile) {
+            writeExternalFile(x, z, data);
+            file.seek((long) sectorNumber * SECTOR_BYTES);
+            file.writeInt(1); // chunk length
+            file.writeByte(VERSION_DEFLATE_EXTERNAL); // chunk version number (external file)
+            return;
+        }
+
+        file.seek((long) sectorNumber * SECTOR_BYTES);
+        file.writeInt(length + 1); // chunk length
+        file.writeByte(VERSION_DEFLATE); // chunk version number
+        file.write(data, 0, length); // chunk data
+        Files.deleteIfExists(getExternalChunkPath(x, z));
+    }
+
+    private int getOffset(int x, int z) {
+        return offsets[getIndex(x, z)];
+    }
+
+    @Override
+    public boolean hasChunk(int x, int z) {
+        return getOffset(x, z) != 0;
+    }
+
+    private void setOffset(int x, int z, int offset) throws IOException {
+        offsets[getIndex(x, z)] = offset;
+        file.seek(getIndex(x, z) * 4);
+        file.writeInt(offset);
+    }
+
+    private void setTimestamp(int x, int z, int value) throws IOException {
+        chunkTimestamps[getIndex(x, z)] = value;
+        file.seek(SECTOR_BYTES + getIndex(x, z) * 4);
+        file.writeInt(value);
+    }
+
+    @Override
+    protected synchronized void closeFile() throws IOException {
+        /* drop any free sectors left at the end of the file */
+        int oldSize = sectors.size();
+        sectors.truncate();
+        if (sectors.size() < oldSize) {
+            file.setLength((long) sectors.size() * SECTOR_BYTES);
+            addSizeDelta(-SECTOR_BYTES * (oldSize - sectors.size()));
+        }
+
+        file.close();
+    }
+}
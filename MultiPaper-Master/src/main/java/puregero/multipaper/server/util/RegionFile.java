@@ -62,95 +62,55 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.zip.*;
 
-public class RegionFile {
+/**
+ * The shared parts of a region file: the task queue, the external chunk files
+ * and the decoding of the chunk header. The actual reading and writing of
+ * sectors is done by the engine implementations, see {@link #open(File)}.
+ */
+public abstract class RegionFile {
+
+    protected static final byte VERSION_GZIP = 1;
+    protected static final byte VERSION_DEFLATE = 2;
+    protected static final byte VERSION_DEFLATE_EXTERNAL = (byte) (128 | VERSION_DEFLATE);
 
-    private static final byte VERSION_GZIP = 1;
-    private static final byte VERSION_DEFLATE = 2;
-    private static final byte VERSION_DEFLATE_EXTERNAL = (byte) (128 | VERSION_DEFLATE);
+    protected static final int SECTOR_BYTES = 4096;
+    protected static final int SECTOR_INTS = SECTOR_BYTES / 4;
 
-    private static final int SECTOR_BYTES = 4096;
-    private static final int SECTOR_INTS = SECTOR_BYTES / 4;
+    protected static final int CHUNK_HEADER_SIZE = 5;
 
-    private static final int CHUNK_HEADER_SIZE = 5;
-    private static final byte emptySector[] = new byte[4096];
+    // Use the memory-mapped engine with -Dregionfile.mmap=true
+    private static final boolean USE_MMAP = Boolean.getBoolean("regionfile.mmap");
 
-    private RandomAccessFile file;
-    private File directory;
-    private final int offsets[];
-    private final int chunkTimestamps[];
-    private ArrayList<Boolean> sectorFree;
+    protected final File directory;
     private int sizeDelta;
     private long lastModified = 0;
     private CompletableFuture<?> lastTaskInQueue = CompletableFuture.completedFuture(null);
+    // The number of queued writes for each chunk of this region
+    private final AtomicIntegerArray pendingWrites = new AtomicIntegerArray(SECTOR_INTS);
+
+    public static RegionFile open(File path) {
+        if (USE_MMAP) {
+            return new MappedRegionFile(path);
+        } else {
+            return new RandomAccessRegionFile(path);
+        }
+    }
 
-    public RegionFile(File path) {
-        offsets = new int[SECTOR_INTS];
-        chunkTimestamps = new int[SECTOR_INTS];
-
-        sizeDelta = 0;
-
-        try {
-            if (path.exists()) {
-                lastModified = path.lastModified();
-            }
-
-            directory = path.getParentFile();
-
-            file = new RandomAccessFile(path, "rw");
-
-            if (file.length() < SECTOR_BYTES * 2) {
-                /* we need to write the chunk offset table */
-                for (int i = 0; i < SECTOR_INTS; ++i) {
-                    file.writeInt(0);
-                }
-                // write another sector for the timestamp info
-                for (int i = 0; i < SECTOR_INTS; ++i) {
-                    file.writeInt(0);
-                }
-
-                sizeDelta += SECTOR_BYTES * 2;
-            }
-
-            if ((file.length() & 0xfff) != 0) {
-                /* the file size is not a multiple of 4KB, grow it */
-                file.setLength((file.length() / 4096 + 1) * 4096);
-            }
-
-            /* set up the available sector map */
-            int nSectors = (int) file.length() / SECTOR_BYTES;
-            sectorFree = new ArrayList<Boolean>(nSectors);
-
-            for (int i = 0; i < nSectors; ++i) {
-                sectorFree.add(true);
-            }
-
-            sectorFree.set(0, false); // chunk offset table
-            sectorFree.set(1, false); // for the last modified info
-
-            file.seek(0);
-            for (int i = 0; i < SECTOR_INTS; ++i) {
-                int offset = file.readInt();
-                offsets[i] = offset;
-                if (offset != 0 && (offset >>> 8) + (offset & 0xFF) <= sectorFree.size()) {
-                    for (int sectorNum = 0; sectorNum < (offset & 0xFF); ++sectorNum) {
-                        sectorFree.set((offset >>> 8) + sectorNum, false);
-                    }
-                }
-            }
-            for (int i = 0; i < SECTOR_INTS; ++i) {
-                int lastModValue = file.readInt();
-                chunkTimestamps[i] = lastModValue;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    protected RegionFile(File path) {
+        if (path.exists()) {
+            lastModified = path.lastModified();
         }
+
+        directory = path.getParentFile();
     }
 
     /**
@@ -158,18 +118,53 @@ public class RegionFile {
      * task is being executed at a time, so that the CompletableFuture async
      * pool isn't full of tasks that are waiting upon a single RegionFile.
      * @param task The task to execute
+     * @param executor The I/O pool to run the task on
      */
-    public <T> CompletableFuture<T> submitTask(Function<RegionFile, T> task) {
+    public synchronized <T> CompletableFuture<T> submitTask(Function<RegionFile, T> task, Executor executor) {
         CompletableFuture<T> future = lastTaskInQueue.orTimeout(15, TimeUnit.SECONDS).exceptionally(e -> {
             if (e instanceof TimeoutException || e.getCause() instanceof TimeoutException) {
                 e.printStackTrace();
             }
             return null;
-        }).thenApplyAsync((value) -> task.apply(this));
+        }).thenApplyAsync((value) -> task.apply(this), executor);
         lastTaskInQueue = future;
         return future;
     }
 
+    /**
+     * Reads don't wait behind the queued writes of this region file unless a
+     * write to the same chunk is still queued, in which case the read must see
+     * the result of that write.
+     */
+    public CompletableFuture<byte[]> getDeflatedBytesAsync(int x, int z) {
+        if (pendingWrites.get(getIndex(x, z)) > 0) {
+            return submitTask(regionFile -> regionFile.getDeflatedBytes(x, z), IOScheduler.CHUNK_READ);
+        }
+
+        return CompletableFuture.supplyAsync(() -> getDeflatedBytes(x, z), IOScheduler.CHUNK_READ);
+    }
+
+    public CompletableFuture<Void> putDeflatedBytesAsync(int x, int z, byte[] b) {
+        return putDeflatedBytesAsync(x, z, () -> b);
+    }
+
+    /**
+     * Queue a write of the chunk, the data is only fetched once the write
+     * actually runs, so it can be replaced while the write is still queued.
+     */
+    public CompletableFuture<Void> putDeflatedBytesAsync(int x, int z, Supplier<byte[]> b) {
+        int index = getIndex(x, z);
+        pendingWrites.incrementAndGet(index);
+        return submitTask(regionFile -> {
+            try {
+                regionFile.putDeflatedBytes(x, z, b.get());
+            } finally {
+                pendingWrites.decrementAndGet(index);
+            }
+            return null;
+        }, IOScheduler.CHUNK_WRITE);
+    }
+
     /* the modification date of the region file when it was first opened */
     public long lastModified() {
         return lastModified;
@@ -182,60 +177,14 @@ public class RegionFile {
         return ret;
     }
 
-    public synchronized byte[] getDeflatedBytes(int x, int z) {
-        try {
-            int offset = getOffset(x, z);
-            if (offset == 0) {
-                return null;
-            }
-
-            int sectorNumber = offset >>> 8;
-            int numSectors = offset & 0xFF;
-
-            if (sectorNumber + numSectors > sectorFree.size()) {
-                return null;
-            }
-
-            file.seek((long) sectorNumber * SECTOR_BYTES);
-            int length = file.readInt();
-
-            if (length > SECTOR_BYTES * numSectors) {
-                return null;
-            }
-
-            byte version = file.readByte();
-            if (version == VERSION_GZIP) {
-                // Noooo, it's in gzip! We want deflate!
-                byte[] gzipData = new byte[length - 1];
-                file.read(gzipData);
-                return toByteArray(new DeflaterInputStream(new GZIPInputStream(new ByteArrayInputStream(gzipData))));
-            } else if (version == VERSION_DEFLATE) {
-                byte[] data = new byte[length - 1];
-                file.read(data);
-                return data;
-            } else if (version == VERSION_DEFLATE_EXTERNAL) {
-                return readExternalFile(x, z);
-            }
-
-            return null;
-        } catch (IOException e) {
-            return null;
-        }
+    protected synchronized void addSizeDelta(int delta) {
+        sizeDelta += delta;
     }
 
-    private byte[] toByteArray(InputStream in) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        byte[] buffer = new byte[4096];
-
-        int length;
-        while ((length = in.read(buffer)) >= 0) {
-            out.write(buffer, 0, length);
-        }
+    /* must be safe to call while a write is in progress, reads don't go through the task queue */
+    public abstract byte[] getDeflatedBytes(int x, int z);
 
-        return out.toByteArray();
-    }
-
-    public synchronized void putDeflatedBytes(int x, int z, byte[] b) {
+    public void putDeflatedBytes(int x, int z, byte[] b) {
         write(x, z, b, b.length);
     }
 
@@ -243,61 +192,21 @@ public class RegionFile {
      * gets an (uncompressed) stream representing the chunk data returns null if
      * the chunk is not found or an error occurs
      */
-    public synchronized DataInputStream getChunkDataInputStream(int x, int z) {
-        try {
-            int offset = getOffset(x, z);
-            if (offset == 0) {
-                return null;
-            }
-
-            int sectorNumber = offset >>> 8;
-            int numSectors = offset & 0xFF;
-
-            if (sectorNumber + numSectors > sectorFree.size()) {
-                return null;
-            }
-
-            file.seek((long) sectorNumber * SECTOR_BYTES);
-            int length = file.readInt();
-
-            if (length > SECTOR_BYTES * numSectors) {
-                return null;
-            }
-
-            byte version = file.readByte();
-            if (version == VERSION_GZIP) {
-                byte[] data = new byte[length - 1];
-                file.read(data);
-                return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
-            } else if (version == VERSION_DEFLATE) {
-                byte[] data = new byte[length - 1];
-                file.read(data);
-                return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
-            } else if (version == VERSION_DEFLATE_EXTERNAL) {
-                return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(readExternalFile(x, z))));
-            }
-
-            return null;
-        } catch (IOException e) {
+    public DataInputStream getChunkDataInputStream(int x, int z) {
+        byte[] data = getDeflatedBytes(x, z);
+        if (data == null) {
             return null;
         }
+
+        return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
     }
 
-    public synchronized void clear(int x, int z) throws IOException {
-        int offset = getOffset(x, z);
+    public abstract void clear(int x, int z) throws IOException;
 
-        if (offset != 0) {
-            int sectorNumber = offset >>> 8;
-            int sectorsAllocated = offset & 0xFF;
-            setOffset(x, z, 0);
-            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
-            for (int i = 0; i < sectorsAllocated; ++i) {
-                sectorFree.set(sectorNumber + i, true);
-            }
-        }
+    public abstract boolean hasChunk(int x, int z);
 
-        Files.deleteIfExists(getExternalChunkPath(x, z));
-    }
+    /* write a chunk at (x,z) with length bytes of data to disk */
+    protected abstract void write(int x, int z, byte[] data, int length);
 
     public DataOutputStream getChunkDataOutputStream(int x, int z) {
         return new DataOutputStream(new DeflaterOutputStream(new ChunkBuffer(x, z)));
@@ -321,97 +230,43 @@ public class RegionFile {
         }
     }
 
-    /* write a chunk at (x,z) with length bytes of data to disk */
-    protected synchronized void write(int x, int z, byte[] data, int length) {        
-        try {
-            if (length == 0) {
-                clear(x, z);
-                return;
-            }
-            
-            int offset = getOffset(x, z);
-            int sectorNumber = offset >>> 8;
-            int sectorsAllocated = offset & 0xFF;
-            int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
-            boolean externalFile = false;
-
-            // maximum chunk size is 1MB
-            if (sectorsNeeded >= 256) {
-                externalFile = true;
-                sectorsNeeded = 1;
-            }
+    /* turns the payload following the chunk header into deflated bytes */
+    protected byte[] decodeChunkData(int x, int z, byte version, byte[] data) throws IOException {
+        if (version == VERSION_GZIP) {
+            // Noooo, it's in gzip! We want deflate!
+            return toByteArray(new DeflaterInputStream(new GZIPInputStream(new ByteArrayInputStream(data))));
+        } else if (version == VERSION_DEFLATE) {
+            return data;
+        } else if (version == VERSION_DEFLATE_EXTERNAL) {
+            return readExternalFile(x, z);
+        }
 
-            if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
-                /* we can simply overwrite the old sectors */
-                write(x, z, sectorNumber, data, length, externalFile);
-            } else {
-                /* we need to allocate new sectors */
-
-                /* mark the sectors previously used for this chunk as free */
-                for (int i = 0; i < sectorsAllocated; ++i) {
-                    sectorFree.set(sectorNumber + i, true);
-                }
-
-                /* scan for a free space large enough to store this chunk */
-                int runStart = sectorFree.indexOf(true);
-                int runLength = 0;
-                if (runStart != -1) {
-                    for (int i = runStart; i < sectorFree.size(); ++i) {
-                        if (runLength != 0) {
-                            if (sectorFree.get(i)) runLength++;
-                            else runLength = 0;
-                        } else if (sectorFree.get(i)) {
-                            runStart = i;
-                            runLength = 1;
-                        }
-                        if (runLength >= sectorsNeeded) {
-                            break;
-                        }
-                    }
-                }
-
-                if (runLength >= sectorsNeeded) {
-                    /* we found a free space large enough */
-                    sectorNumber = runStart;
-                    setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
-                    for (int i = 0; i < sectorsNeeded; ++i) {
-                        sectorFree.set(sectorNumber + i, false);
-                    }
-                    write(x, z, sectorNumber, data, length, externalFile);
-                } else {
-                    /*
-                     * no free space large enough found -- we need to grow the
-                     * file
-                     */
-                    file.seek(file.length());
-                    sectorNumber = sectorFree.size();
-                    for (int i = 0; i < sectorsNeeded; ++i) {
-                        file.write(emptySector);
-                        sectorFree.add(false);
-                    }
-                    sizeDelta += SECTOR_BYTES * sectorsNeeded;
-
-                    write(x, z, sectorNumber, data, length, externalFile);
-                    setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
-                }
-            }
-            setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
-        } catch (IOException e) {
-            e.printStackTrace();
+        return null;
+    }
+
+    private static byte[] toByteArray(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        int length;
+        while ((length = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, length);
         }
+
+        return out.toByteArray();
     }
 
-    private Path getExternalChunkPath(int x, int z) {
+    protected Path getExternalChunkPath(int x, int z) {
         String filename = "c." + x + "." + z + ".mcc";
 
         return directory.toPath().resolve(filename);
     }
 
-    private byte[] readExternalFile(int x, int z) throws IOException {
+    protected byte[] readExternalFile(int x, int z) throws IOException {
         return Files.readAllBytes(getExternalChunkPath(x, z));
     }
 
-    private void writeExternalFile(int x, int z, byte[] data) throws IOException {
+    protected void writeExternalFile(int x, int z, byte[] data) throws IOException {
         Path temp = Files.createTempFile("c." + x + "." + z, ".mcc");
 
         Files.write(temp, data);
@@ -419,49 +274,21 @@ public class RegionFile {
         Files.move(temp, getExternalChunkPath(x, z), StandardCopyOption.REPLACE_EXISTING);
     }
 
-    /* write a chunk data to the region file at specified sector number */
-    private void write(int x, int z, int sectorNumber, byte[] data, int length, boolean externalFile) throws IOException {
-        if (externalFile) {
-            writeExternalFile(x, z, data);
-            file.seek((long) sectorNumber * SECTOR_BYTES);
-            file.writeInt(1); // chunk length
-            file.writeByte(VERSION_DEFLATE_EXTERNAL); // chunk version number (external file)
-            return;
-        }
-
-        file.seek((long) sectorNumber * SECTOR_BYTES);
-        file.writeInt(length + 1); // chunk length
-        file.writeByte(VERSION_DEFLATE); // chunk version number
-        file.write(data, 0, length); // chunk data
-        Files.deleteIfExists(getExternalChunkPath(x, z));
-    }
-
-    private int getOffset(int x, int z) {
-        return offsets[(x & 31) + (z & 31) * 32];
-    }
-
-    public boolean hasChunk(int x, int z) {
-        return getOffset(x, z) != 0;
+    protected static int getIndex(int x, int z) {
+        return (x & 31) + (z & 31) * 32;
     }
 
-    private void setOffset(int x, int z, int offset) throws IOException {
-        offsets[(x & 31) + (z & 31) * 32] = offset;
-        file.seek(((x & 31) + (z & 31) * 32) * 4);
-        file.writeInt(offset);
+    public void close() throws IOException {
+        CompletableFuture<?> lastTask;
+        while (!(lastTask = getLastTaskInQueue()).isDone()) {
+            lastTask.join();
+        }
+        closeFile();
     }
 
-    private void setTimestamp(int x, int z, int value) throws IOException {
-        chunkTimestamps[(x & 31) + (z & 31) * 32] = value;
-        file.seek(SECTOR_BYTES + ((x & 31) + (z & 31) * 32) * 4);
-        file.writeInt(value);
+    private synchronized CompletableFuture<?> getLastTaskInQueue() {
+        return lastTaskInQueue;
     }
 
-    public void close() throws IOException {
-        while (!lastTaskInQueue.isDone()) {
-            lastTaskInQueue.join();
-        }
-        synchronized (this) {
-            file.close();
-        }
-    }
+    protected abstract void closeFile() throws IOException;
 }
@@ -23,162 +23,391 @@ package puregero.multipaper.server.util;
  *
  */
 
-// A simple cache and wrapper for efficiently multiple RegionFiles simultaneously.
+// A concurrent cache of open RegionFile handles, keyed by world, path and region.
 
-import java.io.*;
-import java.lang.ref.*;
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class RegionFileCache {
 
     private static final int MAX_CACHE_SIZE = Integer.getInteger("max.regionfile.cache.size", 256);
 
-    private static final LinkedHashMap<File, Reference<RegionFile>> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static final ConcurrentHashMap<RegionKey, CachedRegionFile> cache = new ConcurrentHashMap<>();
+    // Evicted files that are still in use, they must be closed before the region can be opened again
+    private static final ConcurrentHashMap<RegionKey, CachedRegionFile> closing = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<RegionKey, CachedRegionFile> pinned = new ConcurrentHashMap<>();
+    private static final AtomicLong accessCounter = new AtomicLong();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder openHandles = new LongAdder();
 
     private RegionFileCache() {
     }
 
-    public static synchronized boolean isRegionFileOpen(File regionDir, int chunkX, int chunkZ) {
-        File file = new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca");
+    public record RegionKey(String world, String path, int regionX, int regionZ) {
+        public static RegionKey ofChunk(String world, String path, int chunkX, int chunkZ) {
+            return new RegionKey(world, path, chunkX >> 5, chunkZ >> 5);
+        }
+
+        public File getFile() {
+            return new File(getWorldDir(world, path), "r." + regionX + "." + regionZ + ".mca");
+        }
+    }
 
-        file = canonical(file);
+    private static class CachedRegionFile {
+        private final RegionKey key;
+        // Completes once any previous handle on the same file has been closed
+        private final CompletableFuture<RegionFile> regionFile;
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        // The number of operations in progress on this file, or -1 once it has been closed
+        private final AtomicInteger users = new AtomicInteger();
+        // Guarded by this, so that pinning and evicting can't interleave
+        private volatile int pins = 0;
+        private volatile long lastAccess = accessCounter.incrementAndGet();
+        private final AtomicBoolean evicted = new AtomicBoolean();
+
+        private CachedRegionFile(RegionKey key, CompletableFuture<RegionFile> regionFile) {
+            this.key = key;
+            this.regionFile = regionFile;
+        }
 
-        Reference<RegionFile> ref = cache.get(file);
+        private boolean retain() {
+            int count;
+            do {
+                count = users.get();
+                if (count < 0) {
+                    return false;
+                }
+            } while (!users.compareAndSet(count, count + 1));
 
-        if (ref != null && ref.get() != null) {
+            lastAccess = accessCounter.incrementAndGet();
             return true;
         }
 
-        return false;
-    }
+        private void release() {
+            if (users.decrementAndGet() == 0 && evicted.get()) {
+                closeIfUnused();
+            }
+        }
 
-    private static File canonical(File file) {
-        try {
-            // Remove any .'s and ..'s
-            return new File(file.getCanonicalPath());
-        } catch (IOException e) {
-            e.printStackTrace();
-            return file;
+        /**
+         * Must be called before the file is removed from the cache.
+         * @return false if the file is pinned and force is false
+         */
+        private synchronized boolean evict(boolean force) {
+            if (pins > 0 && !force) {
+                return false;
+            }
+
+            if (!evicted.get()) {
+                closing.put(key, this);
+                evicted.set(true);
+            }
+            return true;
         }
-    }
-    
-    private static File getFileForRegionFile(File regionDir, int chunkX, int chunkZ) {
-        return new File(regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca");
-    }
 
-    public static synchronized RegionFile getRegionFileIfExists(File regionDir, int chunkX, int chunkZ) {
-        File file = getFileForRegionFile(regionDir, chunkX, chunkZ);
+        /* returns false if the file has already been evicted */
+        private synchronized boolean pin() {
+            if (evicted.get()) {
+                return false;
+            }
 
-        file = canonical(file);
+            pins++;
+            pinned.put(key, this);
+            return true;
+        }
 
-        Reference<RegionFile> ref = cache.get(file);
+        /* returns true once the last pin has been removed */
+        private synchronized boolean unpin() {
+            if (pins == 0) {
+                return false;
+            }
 
-        if (ref != null && ref.get() != null) {
-            return ref.get();
+            if (--pins == 0) {
+                pinned.remove(key, this);
+                return true;
+            }
+            return false;
         }
 
-        if (file.isFile()) {
-            return getRegionFile(regionDir, chunkX, chunkZ);
-        } else {
-            return null;
+        private void closeIfUnused() {
+            if (users.compareAndSet(0, -1)) {
+                regionFile.whenComplete((file, throwable) -> {
+                    try {
+                        if (file != null) {
+                            file.close();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    openHandles.decrement();
+                    closing.remove(key, this);
+                    closed.complete(null);
+                });
+            }
         }
     }
 
-    public static synchronized RegionFile getRegionFile(File regionDir, int chunkX, int chunkZ) {
-        File file = getFileForRegionFile(regionDir, chunkX, chunkZ);
-
-        file = canonical(file);
-
-        Reference<RegionFile> ref = cache.get(file);
+    public static File getWorldDir(String world, String path) {
+        File file = new File(world);
 
-        if (ref != null && ref.get() != null) {
-            return ref.get();
+        if (world.endsWith("_nether")) {
+            file = new File(file, "DIM-1");
         }
 
-        if (!regionDir.exists()) {
-            regionDir.mkdirs();
+        if (world.endsWith("_the_end")) {
+            file = new File(file, "DIM1");
         }
 
-        if (cache.size() >= MAX_CACHE_SIZE) {
-            clearOne();
+        return new File(file, path);
+    }
+
+    private static CachedRegionFile open(RegionKey key) {
+        misses.increment();
+
+        File file = key.getFile();
+        CompletableFuture<RegionFile> regionFile = new CompletableFuture<>();
+        Runnable openFile = () -> {
+            try {
+                if (!file.getParentFile().exists()) {
+                    file.getParentFile().mkdirs();
+                }
+
+                regionFile.complete(RegionFile.open(file));
+            } catch (Throwable throwable) {
+                regionFile.completeExceptionally(throwable);
+            }
+        };
+
+        CachedRegionFile evicted = closing.get(key);
+        if (evicted != null) {
+            // Never have the same file open twice, open it once the evicted one has finished up
+            evicted.closed.thenRun(openFile);
+        } else {
+            openFile.run();
         }
 
-        RegionFile reg = new RegionFile(file);
-        cache.put(file, new SoftReference<>(reg));
-        return reg;
+        openHandles.increment();
+        return new CachedRegionFile(key, regionFile);
     }
 
-    private static synchronized void clearOne() {
-        Map.Entry<File, Reference<RegionFile>> clearEntry = cache.entrySet().iterator().next();
-        cache.remove(clearEntry.getKey());
-        try {
-            RegionFile removeFile = clearEntry.getValue().get();
-            if (removeFile != null) {
-                removeFile.close();
+    /**
+     * Get the region file and mark it as in use, it won't be closed until it
+     * has been released again.
+     * @param create Whether to create the region file if it doesn't exist yet
+     * @return The region file, or null if it doesn't exist and create is false
+     */
+    private static CachedRegionFile acquire(RegionKey key, boolean create) {
+        while (true) {
+            CachedRegionFile entry = cache.get(key);
+            boolean opened = false;
+
+            if (entry != null) {
+                hits.increment();
+            } else {
+                if (!create && !closing.containsKey(key) && !key.getFile().isFile()) {
+                    return null;
+                }
+
+                entry = cache.computeIfAbsent(key, RegionFileCache::open);
+                opened = true;
+                forgetIfOpenFails(entry);
+            }
+
+            if (entry.retain()) {
+                if (opened) {
+                    evictIfFull();
+                }
+                return entry;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            // It was evicted and closed while we were getting it, open it again
+            cache.remove(key, entry);
         }
     }
 
-    public static int getSizeDelta(File basePath, int chunkX, int chunkZ) {
-        RegionFile r = getRegionFile(basePath, chunkX, chunkZ);
-        return r.getSizeDelta();
+    /* drop a region file that couldn't be opened from the cache, so that the next access tries to open it again */
+    private static void forgetIfOpenFails(CachedRegionFile entry) {
+        entry.regionFile.whenComplete((file, throwable) -> {
+            if (throwable != null && cache.remove(entry.key, entry)) {
+                pinned.remove(entry.key, entry);
+                openHandles.decrement();
+            }
+        });
     }
 
-    public static DataInputStream getChunkDataInputStream(File basePath, int chunkX, int chunkZ) {
-        RegionFile r = getRegionFile(basePath, chunkX, chunkZ);
-        if (r != null) {
-            return r.getChunkDataInputStream(chunkX, chunkZ);
-        } else {
-            return null;
+    private static void evictIfFull() {
+        while (cache.size() > MAX_CACHE_SIZE) {
+            Map.Entry<RegionKey, CachedRegionFile> leastRecentlyUsed = null;
+
+            for (Map.Entry<RegionKey, CachedRegionFile> entry : cache.entrySet()) {
+                if (entry.getValue().pins == 0 && (leastRecentlyUsed == null || entry.getValue().lastAccess < leastRecentlyUsed.getValue().lastAccess)) {
+                    leastRecentlyUsed = entry;
+                }
+            }
+
+            if (leastRecentlyUsed == null) {
+                // Everything is pinned
+                return;
+            }
+
+            CachedRegionFile entry = leastRecentlyUsed.getValue();
+            if (!entry.evict(false)) {
+                // It was pinned after we looked at it, pick another one
+                continue;
+            }
+            if (cache.remove(leastRecentlyUsed.getKey(), entry)) {
+                evictions.increment();
+                entry.closeIfUnused();
+            }
         }
     }
 
-    public static DataOutputStream getChunkDataOutputStream(File basePath, int chunkX, int chunkZ) {
-        RegionFile r = getRegionFile(basePath, chunkX, chunkZ);
-        return r.getChunkDataOutputStream(chunkX, chunkZ);
+    /* release the file before any of the caller's callbacks run, in case they open it again */
+    private static <T> CompletableFuture<T> releaseWhenDone(CachedRegionFile entry, CompletableFuture<T> future) {
+        return future.whenComplete((value, throwable) -> entry.release());
     }
 
-    public static CompletableFuture<byte[]> getChunkDeflatedDataAsync(File basePath, int chunkX, int chunkZ) {
-        RegionFile r = getRegionFileIfExists(basePath, chunkX, chunkZ);
-        if (r != null) {
-            return r.submitTask(regionFile -> regionFile.getDeflatedBytes(chunkX, chunkZ));
-        } else {
+    public static boolean isRegionFileOpen(String world, String path, int chunkX, int chunkZ) {
+        return cache.containsKey(RegionKey.ofChunk(world, path, chunkX, chunkZ));
+    }
+
+    public static CompletableFuture<byte[]> getChunkDeflatedDataAsync(String world, String path, int chunkX, int chunkZ) {
+        CachedRegionFile entry = acquire(RegionKey.ofChunk(world, path, chunkX, chunkZ), false);
+        if (entry == null) {
             return CompletableFuture.completedFuture(null);
         }
-    }
 
-    private static byte[] getChunkDeflatedData(File basePath, int chunkX, int chunkZ) {
         try {
-            RegionFile r = getRegionFileIfExists(basePath, chunkX, chunkZ);
-            if (r != null) {
-                return r.getDeflatedBytes(chunkX, chunkZ);
-            } else {
-                return null;
-            }
+            return releaseWhenDone(entry, entry.regionFile.thenCompose(regionFile -> regionFile.getDeflatedBytesAsync(chunkX, chunkZ)));
         } catch (Throwable throwable) {
-            System.err.println("Error when trying to read chunk " + chunkX + "," + chunkZ + " in " + basePath);
+            entry.release();
+            System.err.println("Error when trying to read chunk " + chunkX + "," + chunkZ + " in " + world + "/" + path);
             throw throwable;
         }
     }
 
-    public static CompletableFuture<Void> putChunkDeflatedDataAsync(File basePath, int chunkX, int chunkZ, byte[] data) {
-        RegionFile r = getRegionFile(basePath, chunkX, chunkZ);
-        return r.submitTask(regionFile -> {
-            regionFile.putDeflatedBytes(chunkX, chunkZ, data);
-            return null;
-        });
+    public static CompletableFuture<Void> putChunkDeflatedDataAsync(String world, String path, int chunkX, int chunkZ, byte[] data) {
+        return putChunkDeflatedDataAsync(world, path, chunkX, chunkZ, () -> data);
     }
 
-    private static void putChunkDeflatedData(File basePath, int chunkX, int chunkZ, byte[] data) {
+    /**
+     * Write a chunk, fetching its data only once the write is about to run.
+     */
+    public static CompletableFuture<Void> putChunkDeflatedDataAsync(String world, String path, int chunkX, int chunkZ, Supplier<byte[]> data) {
+        CachedRegionFile entry = acquire(RegionKey.ofChunk(world, path, chunkX, chunkZ), true);
+
         try {
-            RegionFile r = getRegionFile(basePath, chunkX, chunkZ);
-            r.putDeflatedBytes(chunkX, chunkZ, data);
+            return releaseWhenDone(entry, entry.regionFile.thenCompose(regionFile -> regionFile.putDeflatedBytesAsync(chunkX, chunkZ, data)));
         } catch (Throwable throwable) {
-            System.err.println("Error when trying to write chunk " + chunkX + "," + chunkZ + " in " + basePath);
+            entry.release();
+            System.err.println("Error when trying to write chunk " + chunkX + "," + chunkZ + " in " + world + "/" + path);
             throw throwable;
         }
     }
+
+    /**
+     * Keep a region file open, it won't be evicted until it has been unpinned
+     * as many times as it was pinned.
+     */
+    public static void pinRegion(RegionKey key) {
+        while (true) {
+            CachedRegionFile entry = acquire(key, true);
+            try {
+                if (entry.pin()) {
+                    return;
+                }
+            } finally {
+                entry.release();
+            }
+
+            // It was evicted just before we pinned it, pin the newly opened one instead
+            cache.remove(key, entry);
+        }
+    }
+
+    /**
+     * @return false if the region file wasn't pinned
+     */
+    public static boolean unpinRegion(RegionKey key) {
+        CachedRegionFile entry = pinned.get(key);
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.unpin()) {
+            evictIfFull();
+        }
+        return true;
+    }
+
+    /**
+     * Pin the regions listed in the regionfile.pinned property, given as a
+     * comma separated list of world:path:regionX:regionZ
+     */
+    public static void pinConfiguredRegions() {
+        String regions = System.getProperty("regionfile.pinned", "");
+        for (String region : regions.split(",")) {
+            if (region.isBlank()) {
+                continue;
+            }
+
+            String[] parts = region.trim().split(":");
+            try {
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Expected world:path:regionX:regionZ");
+                }
+                pinRegion(new RegionKey(parts[0], parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid pinned region '" + region + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close every region file, waiting for any queued tasks on them first.
+     */
+    public static void closeAll() {
+        for (Map.Entry<RegionKey, CachedRegionFile> entry : cache.entrySet()) {
+            entry.getValue().evict(true);
+            if (cache.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().closeIfUnused();
+            }
+        }
+        pinned.clear();
+    }
+
+    public static int getPinnedCount() {
+        return pinned.size();
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    public static long getOpenHandles() {
+        return openHandles.sum();
+    }
+
+    public static int getCachedCount() {
+        return cache.size();
+    }
 }
@@ -0,0 +1,106 @@
+package puregero.multipaper.server.util;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of which sectors of a region file are in use. Free space is
+ * found a whole run at a time with word-level scanning, and for every run
+ * length we remember the lowest sector a free run of that length could start
+ * at, so repeated allocations don't rescan the full, fragmented front of the
+ * file.
+ */
+public class SectorBitmap {
+
+    // A chunk can't take up more than 255 sectors
+    private static final int MAX_RUN_LENGTH = 256;
+
+    private final BitSet used = new BitSet();
+    private final int[] searchFrom = new int[MAX_RUN_LENGTH];
+    private int size;
+
+    public SectorBitmap(int size) {
+        this.size = size;
+    }
+
+    /* the number of sectors currently in the file */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFree(int sector) {
+        return sector < size && !used.get(sector);
+    }
+
+    public void markUsed(int start, int count) {
+        used.set(start, Math.min(start + count, size));
+    }
+
+    public void markFree(int start, int count) {
+        int end = Math.min(start + count, size);
+        if (start >= end) {
+            return;
+        }
+
+        used.clear(start, end);
+
+        // A free run containing these sectors starts after the previous used sector
+        int runStart = used.previousSetBit(start - 1) + 1;
+        for (int i = 0; i < searchFrom.length; i++) {
+            if (searchFrom[i] > runStart) {
+                searchFrom[i] = runStart;
+            }
+        }
+    }
+
+    /**
+     * Finds the first run of free sectors long enough to hold count sectors
+     * and marks it as used. If there isn't one, the bitmap is grown, reusing
+     * any free sectors at the end of the file.
+     * @return The first sector of the allocated run
+     */
+    public int allocate(int count) {
+        int hint = Math.min(count, MAX_RUN_LENGTH - 1);
+        int runStart = used.nextClearBit(searchFrom[hint]);
+
+        while (runStart < size) {
+            int runEnd = used.nextSetBit(runStart);
+            if (runEnd < 0 || runEnd >= size) {
+                // Free up to the end of the file, grow the file from here
+                break;
+            }
+
+            if (runEnd - runStart >= count) {
+                break;
+            }
+
+            runStart = used.nextClearBit(runEnd);
+        }
+
+        // There's no run of this length, or any longer length, before runStart
+        for (int i = hint; i < searchFrom.length; i++) {
+            if (searchFrom[i] < runStart) {
+                searchFrom[i] = runStart;
+            }
+        }
+
+        if (runStart + count > size) {
+            size = runStart + count;
+        }
+
+        used.set(runStart, runStart + count);
+        return runStart;
+    }
+
+    /* the number of sectors the file needs to keep, without its trailing free sectors */
+    public int usedSize() {
+        return used.previousSetBit(size - 1) + 1;
+    }
+
+    /* drops the trailing free sectors, the file must be truncated to match */
+    public void truncate() {
+        size = usedSize();
+        for (int i = 0; i < searchFrom.length; i++) {
+            searchFrom[i] = Math.min(searchFrom[i], size);
+        }
+    }
+}
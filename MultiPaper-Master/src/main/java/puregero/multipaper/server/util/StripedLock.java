@@ -0,0 +1,91 @@
+package puregero.multipaper.server.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that chunks are spread across. All the chunks in a
+ * region share the same lock, so a whole region can be worked on while
+ * holding a single lock. Keeps track of how often and for how long each
+ * lock had to be waited on.
+ */
+public class StripedLock {
+
+    private final String name;
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final AtomicLongArray contended;
+    private final AtomicLongArray waitNanos;
+
+    /**
+     * @param stripes The number of locks, rounded up to a power of two
+     */
+    public StripedLock(String name, int stripes) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+
+        this.name = name;
+        this.locks = new ReentrantLock[count];
+        this.mask = count - 1;
+        this.contended = new AtomicLongArray(count);
+        this.waitNanos = new AtomicLongArray(count);
+
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /* the default number of stripes for this machine */
+    public static int defaultStripes() {
+        return Math.max(64, Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    public int getStripeCount() {
+        return locks.length;
+    }
+
+    public int getStripe(String world, int cx, int cz) {
+        int hash = world.hashCode(); // Strings cache their hash code
+        hash = 31 * hash + (cx >> 5);
+        hash = 31 * hash + (cz >> 5);
+
+        // Spread the bits, neighbouring regions only differ in their low bits
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public void lock(int stripe) {
+        acquisitions.increment();
+
+        ReentrantLock lock = locks[stripe];
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            contended.incrementAndGet(stripe);
+            waitNanos.addAndGet(stripe, System.nanoTime() - start);
+        }
+    }
+
+    public void unlock(int stripe) {
+        locks[stripe].unlock();
+    }
+
+    @Override
+    public String toString() {
+        long totalContended = 0;
+        long totalWaitNanos = 0;
+        int hottest = 0;
+        for (int i = 0; i < locks.length; i++) {
+            totalContended += contended.get(i);
+            totalWaitNanos += waitNanos.get(i);
+            if (waitNanos.get(i) > waitNanos.get(hottest)) {
+                hottest = i;
+            }
+        }
+
+        return String.format("%s locks: %d stripes, %d acquisitions, %d contended, %.2fms waited, hottest stripe #%d (%d contended, %.2fms waited)",
+                name, locks.length, acquisitions.sum(), totalContended, totalWaitNanos / 1e6, hottest, contended.get(hottest), waitNanos.get(hottest) / 1e6);
+    }
+}
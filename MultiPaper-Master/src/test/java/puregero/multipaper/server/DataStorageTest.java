@@ -0,0 +1,147 @@
+package puregero.multipaper.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.BatchDataStorageMessage.Operation;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataStorageWatchMessageReply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Run with -Ddatastorage.directory set to a scratch directory, as the build
+ * does, it's emptied before the tests start.
+ */
+class DataStorageTest {
+
+    private static File directory;
+
+    @BeforeAll
+    static void clearDirectory() {
+        directory = new File(System.getProperty("datastorage.directory", "datastorage"));
+        assertNotNull(System.getProperty("datastorage.directory"), "datastorage.directory must be set");
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+    }
+
+    @BeforeEach
+    void load() {
+        DataStorage.load();
+    }
+
+    @AfterEach
+    void unload() {
+        DataStorage.unload();
+    }
+
+    private static void reload() {
+        DataStorage.unload();
+        DataStorage.load();
+    }
+
+    private static File[] logFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        assertNotNull(files);
+        Arrays.sort(files, Comparator.comparingLong(file -> Long.parseLong(file.getName().substring(0, file.getName().length() - 4))));
+        return files;
+    }
+
+    @Test
+    void replaysTheLog() {
+        DataStorage.set("replay.a", "1");
+        DataStorage.set("replay.b", "2");
+        for (int i = 0; i < 5; i++) {
+            DataStorage.add("replay.counter", "3");
+        }
+        DataStorage.set("replay.b", null);
+        assertTrue(DataStorage.batch(List.of(Operation.set("replay.c", "4"), Operation.add("replay.a", "10")), new String[2]));
+
+        reload();
+
+        assertEquals(Map.of("replay.a", "11", "replay.counter", "15", "replay.c", "4"), DataStorage.list("replay."));
+    }
+
+    @Test
+    void abortedBatchIsNotLogged() {
+        DataStorage.set("abort.a", "1");
+        String[] results = new String[2];
+        assertFalse(DataStorage.batch(List.of(Operation.set("abort.b", "2"), Operation.compareAndSet("abort.a", "0", "3")), results));
+        assertEquals("1", results[1]);
+
+        reload();
+
+        assertEquals(Map.of("abort.a", "1"), DataStorage.list("abort."));
+    }
+
+    @Test
+    void tornBatchIsDroppedAsAWhole() throws IOException {
+        DataStorage.set("torn.a", "1");
+        assertTrue(DataStorage.batch(List.of(Operation.set("torn.b", "2"), Operation.set("torn.c", "3")), new String[2]));
+        DataStorage.unload();
+
+        // Lose the last byte of the batch, as if the process died while writing it
+        File[] logs = logFiles();
+        try (RandomAccessFile log = new RandomAccessFile(logs[logs.length - 1], "rw")) {
+            log.setLength(log.length() - 1);
+        }
+        DataStorage.load();
+
+        assertEquals(Map.of("torn.a", "1"), DataStorage.list("torn."));
+    }
+
+    @Test
+    void removedKeysKeepTheirVersionUntilRestart() {
+        DataStorage.set("tombstone.a", "1");
+        DataStorage.set("tombstone.a", "2");
+        DataStorage.set("tombstone.a", null);
+
+        assertEquals(List.of(new DataStorageWatchMessageReply.Entry("tombstone.a", null, 3)), DataStorage.listVersions("tombstone."));
+
+        reload();
+
+        assertEquals(List.of(), DataStorage.listVersions("tombstone."));
+    }
+
+    @Test
+    void compactsOnceTheLogOutgrowsTheSnapshot() {
+        long firstGeneration = Long.parseLong(logFiles()[0].getName().replace(".log", ""));
+
+        // More than the default 4MB minimum before compacting
+        String value = "x".repeat(1024);
+        for (int i = 0; i < 6000; i++) {
+            DataStorage.set("compact." + (i % 100), value + i);
+        }
+        DataStorage.unload();
+
+        File[] logs = logFiles();
+        assertEquals(1, logs.length);
+        assertTrue(Long.parseLong(logs[0].getName().replace(".log", "")) > firstGeneration, "the log was never compacted");
+        assertTrue(new File(directory, "snapshot.dat").isFile());
+
+        DataStorage.load();
+
+        Map<String, String> values = DataStorage.list("compact.");
+        assertEquals(100, values.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(value + (5900 + i), values.get("compact." + i));
+        }
+    }
+}
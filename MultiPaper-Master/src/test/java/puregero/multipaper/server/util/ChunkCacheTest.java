@@ -0,0 +1,101 @@
+package puregero.multipaper.server.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkCacheTest {
+
+    @TempDir
+    File directory;
+
+    private String world() {
+        return new File(directory, "world").getPath();
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[4096 + i];
+        data[0] = (byte) i;
+        data[data.length - 1] = (byte) (i >> 8);
+        return data;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        return future.get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void writesAreVisibleBeforeTheyArePersisted() throws Exception {
+        CompletableFuture<Void> persisted = ChunkCache.putChunkDeflatedDataAsync(world(), "region", 1, 2, data(1));
+        assertArrayEquals(data(1), join(ChunkCache.getChunkDeflatedDataAsync(world(), "region", 1, 2)));
+
+        join(persisted);
+        assertArrayEquals(data(1), join(RegionFileCache.getChunkDeflatedDataAsync(world(), "region", 1, 2)));
+    }
+
+    @Test
+    void writesToOneChunkAreCoalesced() throws Exception {
+        int writes = 200;
+        long flushes = ChunkCache.getFlushes();
+        long coalesced = ChunkCache.getCoalescedWrites();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < writes; i++) {
+            futures.add(ChunkCache.putChunkDeflatedDataAsync(world(), "region", 3, 4, data(i)));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            join(future);
+        }
+
+        assertTrue(ChunkCache.getFlushes() - flushes < writes, "every write was flushed on its own");
+        assertTrue(ChunkCache.getCoalescedWrites() > coalesced);
+
+        // Every write has completed, so the latest data has been persisted
+        assertArrayEquals(data(writes - 1), join(RegionFileCache.getChunkDeflatedDataAsync(world(), "region", 3, 4)));
+        assertArrayEquals(data(writes - 1), join(ChunkCache.getChunkDeflatedDataAsync(world(), "region", 3, 4)));
+    }
+
+    @Test
+    void writesToDifferentChunksAreAllPersisted() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int x = 0; x < 8; x++) {
+            for (int i = 0; i < 10; i++) {
+                futures.add(ChunkCache.putChunkDeflatedDataAsync(world(), "entities", x, 0, data(x * 10 + i)));
+            }
+        }
+        join(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+
+        for (int x = 0; x < 8; x++) {
+            assertArrayEquals(data(x * 10 + 9), join(RegionFileCache.getChunkDeflatedDataAsync(world(), "entities", x, 0)));
+        }
+    }
+
+    @Test
+    void emptyWriteClearsTheChunk() throws Exception {
+        join(ChunkCache.putChunkDeflatedDataAsync(world(), "region", 5, 6, data(5)));
+        CompletableFuture<Void> persisted = ChunkCache.putChunkDeflatedDataAsync(world(), "region", 5, 6, new byte[0]);
+        assertNull(join(ChunkCache.getChunkDeflatedDataAsync(world(), "region", 5, 6)));
+
+        join(persisted);
+        assertNull(join(RegionFileCache.getChunkDeflatedDataAsync(world(), "region", 5, 6)));
+    }
+
+    @Test
+    void flushAllWaitsForPendingWrites() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            ChunkCache.putChunkDeflatedDataAsync(world(), "region", 7, 8, data(i));
+        }
+        join(ChunkCache.flushAll());
+
+        assertArrayEquals(data(19), join(RegionFileCache.getChunkDeflatedDataAsync(world(), "region", 7, 8)));
+    }
+}
@@ -0,0 +1,107 @@
+package puregero.multipaper.server.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongObjectHashMapTest {
+
+    private static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    @Test
+    void putGetAndReplace() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertNull(map.put(pack(1, -1), "a"));
+        assertNull(map.put(pack(-1, 1), "b"));
+        assertEquals("a", map.put(pack(1, -1), "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(pack(1, -1)));
+        assertEquals("b", map.get(pack(-1, 1)));
+        assertNull(map.get(pack(1, 1)));
+        assertFalse(map.containsKey(pack(1, 1)));
+    }
+
+    @Test
+    void rejectsNullValues() {
+        assertThrows(NullPointerException.class, () -> new LongObjectHashMap<String>().put(1, null));
+    }
+
+    @Test
+    void growsPastItsExpectedSize() {
+        LongObjectHashMap<Integer> map = new LongObjectHashMap<>(4);
+        for (int x = -50; x < 50; x++) {
+            for (int z = -50; z < 50; z++) {
+                map.put(pack(x, z), x * 1000 + z);
+            }
+        }
+
+        assertEquals(10000, map.size());
+        for (int x = -50; x < 50; x++) {
+            for (int z = -50; z < 50; z++) {
+                assertEquals(x * 1000 + z, map.get(pack(x, z)));
+            }
+        }
+    }
+
+    @Test
+    void removeKeepsCollidingKeysReachable() {
+        // A few keys put and removed over and over, so that removals keep shifting probe sequences
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(1234);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(64);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = 0; key < 64; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void forEachVisitsEveryEntry() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        for (long i = 0; i < 100; i++) {
+            map.put(i, Long.toString(i));
+        }
+        map.remove(50);
+
+        Map<Long, String> seen = new HashMap<>();
+        map.forEach((key, value) -> assertNull(seen.put(key, value)));
+        assertEquals(99, seen.size());
+        assertFalse(seen.containsKey(50L));
+        assertEquals("99", seen.get(99L));
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertNull(map.put(1, "c"));
+        assertEquals(1, map.size());
+    }
+}
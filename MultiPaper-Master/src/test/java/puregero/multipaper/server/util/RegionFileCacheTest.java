@@ -0,0 +1,37 @@
+package puregero.multipaper.server.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionFileCacheTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void failedOpenIsRetried() throws Exception {
+        String world = new File(directory, "world").getPath();
+        byte[] data = new byte[] { 1, 2, 3 };
+
+        // A file where the region directory should be, so the region file can't be created
+        File regionDirectory = RegionFileCache.getWorldDir(world, "region");
+        assertTrue(regionDirectory.getParentFile().mkdirs());
+        assertTrue(regionDirectory.createNewFile());
+
+        assertThrows(ExecutionException.class, () -> RegionFileCache.putChunkDeflatedDataAsync(world, "region", 0, 0, data).get(30, TimeUnit.SECONDS));
+        assertFalse(RegionFileCache.isRegionFileOpen(world, "region", 0, 0));
+
+        assertTrue(regionDirectory.delete());
+        RegionFileCache.putChunkDeflatedDataAsync(world, "region", 0, 0, data).get(30, TimeUnit.SECONDS);
+        assertArrayEquals(data, RegionFileCache.getChunkDeflatedDataAsync(world, "region", 0, 0).get(30, TimeUnit.SECONDS));
+    }
+}
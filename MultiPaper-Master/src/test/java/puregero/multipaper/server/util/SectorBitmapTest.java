@@ -0,0 +1,89 @@
+package puregero.multipaper.server.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SectorBitmapTest {
+
+    @Test
+    void allocatesFirstFreeRunLongEnough() {
+        SectorBitmap bitmap = new SectorBitmap(10);
+        bitmap.markUsed(0, 2);
+        bitmap.markUsed(3, 2);
+        bitmap.markUsed(7, 3);
+
+        assertEquals(2, bitmap.allocate(1));
+        assertEquals(5, bitmap.allocate(2));
+        assertEquals(10, bitmap.size());
+    }
+
+    @Test
+    void growsWhenNoRunFits() {
+        SectorBitmap bitmap = new SectorBitmap(4);
+        bitmap.markUsed(0, 2);
+
+        // The two free sectors at the end are reused
+        assertEquals(2, bitmap.allocate(5));
+        assertEquals(7, bitmap.size());
+        assertFalse(bitmap.isFree(6));
+        assertFalse(bitmap.isFree(7));
+    }
+
+    @Test
+    void freedRunIsFoundAgain() {
+        SectorBitmap bitmap = new SectorBitmap(2);
+        bitmap.markUsed(0, 2);
+        int first = bitmap.allocate(3);
+        int second = bitmap.allocate(3);
+        assertEquals(2, first);
+        assertEquals(5, second);
+
+        // The search hint has moved past the first run, freeing it must move it back
+        bitmap.markFree(first, 3);
+        assertTrue(bitmap.isFree(first));
+        assertEquals(first, bitmap.allocate(2));
+        assertEquals(first + 2, bitmap.allocate(1));
+        assertEquals(8, bitmap.allocate(1));
+    }
+
+    @Test
+    void freeingMergesWithRunBefore() {
+        SectorBitmap bitmap = new SectorBitmap(10);
+        bitmap.markUsed(0, 10);
+        bitmap.markFree(2, 2);
+        assertEquals(2, bitmap.allocate(1));
+        bitmap.markFree(4, 3);
+
+        // Sector 3 was already free, so the run is 3..6
+        assertEquals(3, bitmap.allocate(4));
+    }
+
+    @Test
+    void markingIsClampedToTheSize() {
+        SectorBitmap bitmap = new SectorBitmap(4);
+        bitmap.markUsed(2, 10);
+        assertEquals(4, bitmap.usedSize());
+        assertFalse(bitmap.isFree(4));
+
+        bitmap.markFree(3, 10);
+        assertEquals(3, bitmap.usedSize());
+    }
+
+    @Test
+    void truncateDropsTrailingFreeSectors() {
+        SectorBitmap bitmap = new SectorBitmap(2);
+        bitmap.markUsed(0, 2);
+        int run = bitmap.allocate(10);
+        bitmap.markFree(run, 10);
+        assertEquals(12, bitmap.size());
+        assertEquals(2, bitmap.usedSize());
+
+        bitmap.truncate();
+        assertEquals(2, bitmap.size());
+        assertEquals(2, bitmap.allocate(1));
+        assertEquals(3, bitmap.size());
+    }
+}
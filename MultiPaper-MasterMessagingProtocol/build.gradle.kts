@@ -1,6 +1,7 @@
 plugins {
     java
     `maven-publish`
+    id("me.champeau.jmh")
 }
 
 version = "${properties["masterVersion"]}-${properties["mcVersion"]}"
@@ -13,6 +14,19 @@ repositories {
 
 dependencies {
     compileOnly("io.netty:netty-all:4.1.87.Final")
+    testImplementation("io.netty:netty-all:4.1.87.Final")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    jmh("io.netty:netty-all:4.1.87.Final")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+}
+
+tasks.test {
+    useJUnitPlatform()
+    systemProperty("multipaper.request.timeout.seconds", "1")
 }
 
 publishing {
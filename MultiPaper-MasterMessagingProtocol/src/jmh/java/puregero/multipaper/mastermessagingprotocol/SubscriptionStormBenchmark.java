@@ -0,0 +1,123 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundProtocol;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.AddChunkSubscriberMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundProtocol;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a subscription storm, such as a server loading an area that many
+ * others are subscribed to: the master sends a burst of subscriber updates
+ * over a loopback connection, one writeAndFlush each, and the benchmark ends
+ * once the other side has decoded all of them. The flushes that reach the
+ * socket and the messages sent are reported alongside, with and without
+ * flush consolidation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SubscriptionStormBenchmark {
+
+    @Param({ "10000" })
+    public int messages;
+
+    /* eventloop replays a fan-out from a handler on the channel's own event loop, caller from any other thread */
+    @Param({ "eventloop", "caller" })
+    public String sentFrom;
+
+    private Channel server;
+    private Channel master;
+    private final Semaphore received = new Semaphore(0);
+    private AddChunkSubscriberMessage[] storm;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Flushes {
+        public long flushes;
+        public long messagesSent;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storm = new AddChunkSubscriberMessage[messages];
+        for (int i = 0; i < messages; i++) {
+            storm[i] = new AddChunkSubscriberMessage("world", i & 127, i >> 7, "server" + (i & 7));
+        }
+
+        CompletableFuture<Channel> accepted = new CompletableFuture<>();
+        server = new MessageBootstrap<MasterBoundMessage, ServerBoundMessage>(new MasterBoundProtocol(), new ServerBoundProtocol(), accepted::complete)
+                .listenOn("127.0.0.1", 0).sync().channel();
+        Channel client = new MessageBootstrap<ServerBoundMessage, MasterBoundMessage>(new ServerBoundProtocol(), new MasterBoundProtocol(), channel -> channel.pipeline().addLast(new SimpleChannelInboundHandler<ServerBoundMessage>() {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, ServerBoundMessage message) {
+                received.release();
+            }
+        })).connectTo("127.0.0.1", ((InetSocketAddress) server.localAddress()).getPort()).sync().channel();
+        master = accepted.get(10, TimeUnit.SECONDS);
+        client.closeFuture().addListener(future -> master.close());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        master.close().sync();
+        server.close().sync();
+    }
+
+    @Benchmark
+    @Fork(1)
+    public void storm(Flushes flushes) throws InterruptedException {
+        replay(flushes);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dmultipaper.netty.flush.consolidation=0")
+    public void stormWithoutConsolidation(Flushes flushes) throws InterruptedException {
+        replay(flushes);
+    }
+
+    private void replay(Flushes flushes) throws InterruptedException {
+        long flushesBefore = FlushCounter.getFlushes();
+        long messagesBefore = FlushCounter.getMessages();
+
+        if (sentFrom.equals("eventloop")) {
+            master.eventLoop().execute(this::sendStorm);
+        } else {
+            sendStorm();
+        }
+        received.acquire(messages);
+
+        flushes.flushes += FlushCounter.getFlushes() - flushesBefore;
+        flushes.messagesSent += FlushCounter.getMessages() - messagesBefore;
+    }
+
+    private void sendStorm() {
+        for (AddChunkSubscriberMessage message : storm) {
+            master.writeAndFlush(message);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package puregero.multipaper.mastermessagingprotocol.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.CallDataStorageMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.LockChunkMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundProtocol;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.WriteChunkMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.AddChunkSubscriberMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ChunkDataMessageReply;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.DataStorageUpdateMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundProtocol;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetChunkOwnerMessage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of one message of each of the busiest types:
+ * the id lookup, the message's own write or read, and the deserializer
+ * lookup. Framing, compression and the channel pipeline are left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final MasterBoundProtocol MASTER_BOUND = new MasterBoundProtocol();
+    private static final ServerBoundProtocol SERVER_BOUND = new ServerBoundProtocol();
+
+    @Param({ "LockChunkMessage", "CallDataStorageMessage", "WriteChunkMessage", "SetChunkOwnerMessage", "AddChunkSubscriberMessage", "ChunkDataMessageReply", "DataStorageUpdateMessage" })
+    public String type;
+
+    private Codec<?> codec;
+    private ByteBuf encodeBuffer;
+    private ByteBuf decodeBuffer;
+
+    private record Codec<T extends Message<?>>(Protocol<T> protocol, T message) {
+        private void encode(ByteBuf buffer) {
+            ExtendedByteBuf byteBuf = new ExtendedByteBuf(buffer);
+            byteBuf.writeVarInt(message.getTransactionId());
+            byteBuf.writeVarInt(protocol.getMessageId(message));
+            message.write(byteBuf);
+        }
+
+        private T decode(ByteBuf buffer) {
+            ExtendedByteBuf byteBuf = new ExtendedByteBuf(buffer);
+            int transactionId = byteBuf.readVarInt();
+            T message = protocol.getDeserializer(byteBuf.readVarInt()).apply(byteBuf);
+            message.setTransactionId(transactionId);
+            return message;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Deflated chunks are usually a few kilobytes
+        byte[] chunk = new byte[6 * 1024];
+        new Random(1234).nextBytes(chunk);
+
+        codec = switch (type) {
+            case "LockChunkMessage" -> new Codec<>(MASTER_BOUND, new LockChunkMessage("world", 123, -456));
+            case "CallDataStorageMessage" -> new Codec<>(MASTER_BOUND, new CallDataStorageMessage("plugin.counter.world", CallDataStorageMessage.Action.ADD, "1"));
+            case "WriteChunkMessage" -> new Codec<>(MASTER_BOUND, new WriteChunkMessage("world", "region", 123, -456, chunk));
+            case "SetChunkOwnerMessage" -> new Codec<>(SERVER_BOUND, new SetChunkOwnerMessage("world", 123, -456, "server1"));
+            case "AddChunkSubscriberMessage" -> new Codec<>(SERVER_BOUND, new AddChunkSubscriberMessage("world", 123, -456, "server2"));
+            case "ChunkDataMessageReply" -> new Codec<>(SERVER_BOUND, new ChunkDataMessageReply(123, -456, chunk, null, false));
+            case "DataStorageUpdateMessage" -> new Codec<>(SERVER_BOUND, new DataStorageUpdateMessage("plugin.counter.world", "42", 7));
+            default -> throw new IllegalArgumentException("Unknown message type " + type);
+        };
+        codec.message().setTransactionId(1000);
+
+        encodeBuffer = Unpooled.directBuffer(16 * 1024);
+        decodeBuffer = Unpooled.directBuffer(16 * 1024);
+        codec.encode(decodeBuffer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encodeBuffer.release();
+        decodeBuffer.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        encodeBuffer.clear();
+        codec.encode(encodeBuffer);
+        return encodeBuffer.writerIndex();
+    }
+
+    @Benchmark
+    public Message<?> decode() {
+        decodeBuffer.readerIndex(0);
+        return codec.decode(decodeBuffer);
+    }
+}
@@ -0,0 +1,68 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression ratio and CPU time per message type, summed over every channel.
+ */
+public class CompressionStats {
+
+    private static final Map<Class<?>, CompressionStats> stats = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    private CompressionStats(Class<?> type) {
+        this.name = type.getSimpleName();
+    }
+
+    private static CompressionStats get(Class<?> type) {
+        return stats.computeIfAbsent(type, CompressionStats::new);
+    }
+
+    public static void recordCompression(Class<?> type, int uncompressedLength, int compressedLength, long nanos) {
+        CompressionStats typeStats = get(type);
+        typeStats.compressed.increment();
+        typeStats.bytesIn.add(uncompressedLength);
+        typeStats.bytesOut.add(compressedLength);
+        typeStats.compressNanos.add(nanos);
+    }
+
+    public static void recordDecompression(Class<?> type, long nanos) {
+        CompressionStats typeStats = get(type);
+        typeStats.decompressed.increment();
+        typeStats.decompressNanos.add(nanos);
+    }
+
+    /**
+     * @return One line per message type that has been compressed or
+     *         decompressed, the most bytes compressed first
+     */
+    public static List<String> getStats() {
+        List<CompressionStats> sorted = new ArrayList<>(stats.values());
+        sorted.sort(Comparator.comparingLong((CompressionStats typeStats) -> typeStats.bytesIn.sum()).reversed());
+
+        List<String> lines = new ArrayList<>();
+        for (CompressionStats typeStats : sorted) {
+            long compressed = typeStats.compressed.sum();
+            long bytesIn = typeStats.bytesIn.sum();
+            long decompressed = typeStats.decompressed.sum();
+            lines.add(String.format("%s: %d frames, %.1fKB -> %.1fKB (%.0f%%), %.1fus each, %d decompressed, %.1fus each",
+                    typeStats.name, compressed, bytesIn / 1024.0, typeStats.bytesOut.sum() / 1024.0,
+                    bytesIn == 0 ? 100 : typeStats.bytesOut.sum() * 100.0 / bytesIn,
+                    compressed == 0 ? 0 : typeStats.compressNanos.sum() / 1e3 / compressed,
+                    decompressed, decompressed == 0 ? 0 : typeStats.decompressNanos.sum() / 1e3 / decompressed));
+        }
+        return lines;
+    }
+}
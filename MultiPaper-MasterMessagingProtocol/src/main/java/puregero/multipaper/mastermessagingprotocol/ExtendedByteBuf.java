@@ -2,6 +2,8 @@ package puregero.multipaper.mastermessagingprotocol;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.util.ByteProcessor;
 
 import java.io.IOException;
@@ -17,10 +19,100 @@ import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 public class ExtendedByteBuf extends ByteBuf {
-    private final ByteBuf parent;
+    // Byte arrays at least this big are sent without being copied
+    private static final int ZERO_COPY_THRESHOLD = Integer.getInteger("multipaper.netty.zerocopy.threshold", 8 * 1024);
+
+    private ByteBuf parent;
+    private final boolean zeroCopy;
+    private CompositeByteBuf composite = null;
+    private StringDictionary stringDictionary = null;
 
     public ExtendedByteBuf(ByteBuf parent) {
+        this(parent, false);
+    }
+
+    /**
+     * @param zeroCopy Whether large byte arrays may be wrapped instead of
+     *                 copied, get the written bytes with finishWriting()
+     */
+    public ExtendedByteBuf(ByteBuf parent, boolean zeroCopy) {
         this.parent = parent;
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Write the bytes, wrapping large arrays instead of copying them when
+     * zero copy is enabled. The array must not be modified until it has
+     * been sent.
+     */
+    public ExtendedByteBuf writeLargeBytes(byte[] bytes) {
+        return writeLargeBytes(bytes, 0, bytes.length);
+    }
+
+    public ExtendedByteBuf writeLargeBytes(byte[] bytes, int offset, int length) {
+        if (!zeroCopy || length < ZERO_COPY_THRESHOLD) {
+            parent.writeBytes(bytes, offset, length);
+            return this;
+        }
+
+        return appendComponent(Unpooled.wrappedBuffer(bytes, offset, length));
+    }
+
+    /**
+     * Write the buffer's remaining bytes without changing its position.
+     */
+    public ExtendedByteBuf writeLargeBytes(ByteBuffer bytes) {
+        if (!zeroCopy || bytes.remaining() < ZERO_COPY_THRESHOLD) {
+            parent.writeBytes(bytes.duplicate());
+            return this;
+        }
+
+        return appendComponent(Unpooled.wrappedBuffer(bytes.duplicate()));
+    }
+
+    private ExtendedByteBuf appendComponent(ByteBuf component) {
+        if (composite == null) {
+            composite = parent.alloc().compositeBuffer(Integer.MAX_VALUE);
+        }
+        composite.addComponent(true, parent);
+        composite.addComponent(true, component);
+        parent = parent.alloc().directBuffer();
+        return this;
+    }
+
+    public static int getVarIntSize(int value) {
+        int size = 1;
+        while ((value & -128) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Assumes the string is mostly ASCII, the buffer grows if it isn't.
+     */
+    public static int estimateStringSize(String string) {
+        return 5 + string.length();
+    }
+
+    /**
+     * @return The number of bytes writeLargeBytes() will copy into the buffer
+     */
+    public static int estimateLargeBytesSize(int length) {
+        return length < ZERO_COPY_THRESHOLD ? length : 0;
+    }
+
+    /**
+     * @return Everything that has been written, including any wrapped arrays
+     */
+    public ByteBuf finishWriting() {
+        if (composite == null) {
+            return parent;
+        }
+
+        composite.addComponent(true, parent);
+        return composite;
     }
 
     public int readVarInt() {
@@ -64,6 +156,50 @@ public class ExtendedByteBuf extends ByteBuf {
         return this;
     }
 
+    /**
+     * Read or write strings that are sent often, such as world and server
+     * names, using this dictionary. Without a dictionary they're sent in full.
+     */
+    public ExtendedByteBuf setStringDictionary(StringDictionary stringDictionary) {
+        this.stringDictionary = stringDictionary;
+        return this;
+    }
+
+    /**
+     * Read a string that was written with writeInternedString. Strings read
+     * from the dictionary are the same instance every time.
+     */
+    public String readInternedString() {
+        if (stringDictionary == null) {
+            return readString();
+        }
+
+        int id = readVarInt();
+        if (id > 0) {
+            return stringDictionary.get(id - 1);
+        }
+
+        String string = readString().intern();
+        stringDictionary.add(string);
+        return string;
+    }
+
+    public ExtendedByteBuf writeInternedString(String string) {
+        if (stringDictionary == null) {
+            return writeString(string);
+        }
+
+        int id = stringDictionary.getId(string);
+        if (id >= 0) {
+            return writeVarInt(id + 1);
+        }
+
+        writeVarInt(0);
+        writeString(string);
+        stringDictionary.add(string);
+        return this;
+    }
+
     public UUID readUUID() {
         return new UUID(readLong(), readLong());
     }
@@ -75,11 +211,11 @@ public class ExtendedByteBuf extends ByteBuf {
     }
 
     public ChunkKey readChunkKey() {
-        return new ChunkKey(readString(), readInt(), readInt());
+        return new ChunkKey(readInternedString(), readInt(), readInt());
     }
 
     public ExtendedByteBuf writeChunkKey(ChunkKey chunkKey) {
-        this.writeString(chunkKey.world);
+        this.writeInternedString(chunkKey.world);
         this.writeInt(chunkKey.x);
         this.writeInt(chunkKey.z);
         return this;
@@ -0,0 +1,46 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the messages, bytes and flushes that actually reach the socket,
+ * summed over every channel.
+ */
+public class FlushCounter extends ChannelOutboundHandlerAdapter {
+
+    private static final LongAdder messages = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        messages.increment();
+        if (msg instanceof ByteBuf byteBuf) {
+            bytes.add(byteBuf.readableBytes());
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        flushes.increment();
+        super.flush(ctx);
+    }
+
+    public static long getMessages() {
+        return messages.sum();
+    }
+
+    public static long getBytes() {
+        return bytes.sum();
+    }
+
+    public static long getFlushes() {
+        return flushes.sum();
+    }
+}
@@ -2,6 +2,7 @@ package puregero.multipaper.mastermessagingprotocol;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollEventLoopGroup;
@@ -12,6 +13,7 @@ import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import puregero.multipaper.mastermessagingprotocol.messages.Message;
 import puregero.multipaper.mastermessagingprotocol.messages.Protocol;
 
@@ -21,6 +23,13 @@ import java.util.function.Consumer;
 public class MessageBootstrap<I extends Message<?>, O extends Message<?>> extends ChannelInitializer<SocketChannel> {
 
     public static boolean DAEMON = true;
+
+    // Coalesce the flushes of messages sent in the same event loop turn, flushing at least every this many messages
+    private static final int FLUSH_CONSOLIDATION = Integer.getInteger("multipaper.netty.flush.consolidation", 256);
+    // A channel stops being writable once this much is queued, and becomes writable again once it's down to the low mark
+    private static final WriteBufferWaterMark WRITE_BUFFER_WATER_MARK = new WriteBufferWaterMark(
+            Integer.getInteger("multipaper.netty.write.buffer.low.kb", 1024) * 1024,
+            Integer.getInteger("multipaper.netty.write.buffer.high.kb", 4096) * 1024);
     private static final ThreadFactory eventLoopThreadFactory = new ThreadFactory() {
         private int counter = 0;
 
@@ -66,6 +75,9 @@ public class MessageBootstrap<I extends Message<?>, O extends Message<?>> extend
                 .group(getEventLoopGroup())
                 .channel(socketChannelClass)
                 .handler(this)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ProtocolMessageSizeEstimator.INSTANCE)
                 .option(ChannelOption.SO_KEEPALIVE, true);
     }
 
@@ -74,6 +86,9 @@ public class MessageBootstrap<I extends Message<?>, O extends Message<?>> extend
                 .group(getEventLoopGroup())
                 .channel(serverSocketChannelClass)
                 .childHandler(this)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK)
+                .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ProtocolMessageSizeEstimator.INSTANCE)
                 .childOption(ChannelOption.SO_KEEPALIVE, true);
     }
 
@@ -91,7 +106,10 @@ public class MessageBootstrap<I extends Message<?>, O extends Message<?>> extend
 
     @Override
     protected void initChannel(SocketChannel socketChannel) {
-        socketChannel.pipeline().addLast(new MessageLengthEncoder());
+        socketChannel.pipeline().addLast(new FlushCounter());
+        if (FLUSH_CONSOLIDATION > 0) {
+            socketChannel.pipeline().addLast(new FlushConsolidationHandler(FLUSH_CONSOLIDATION, true));
+        }
         socketChannel.pipeline().addLast(new MessageLengthDecoder());
         socketChannel.pipeline().addLast(new MessageEncoder<>(this.outboundProtocol));
         socketChannel.pipeline().addLast(new MessageDecoder<>(this.inboundProtocol));
@@ -3,26 +3,107 @@ package puregero.multipaper.mastermessagingprotocol;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
 import puregero.multipaper.mastermessagingprotocol.messages.Message;
 import puregero.multipaper.mastermessagingprotocol.messages.Protocol;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.CompressionEnabledMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.StringDictionaryEnabledMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.EnableStringDictionaryMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.SetCompressionMessage;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class MessageDecoder<T extends Message<?>> extends ByteToMessageDecoder {
 
+    private static final int MAX_UNCOMPRESSED_LENGTH = 256 * 1024 * 1024;
+
     private final Protocol<T> protocol;
+    private boolean compressed = false;
+    private Inflater inflater;
+    private StringDictionary stringDictionary;
 
     public MessageDecoder(Protocol<T> protocol) {
         this.protocol = protocol;
     }
 
     @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
-        ExtendedByteBuf extendedByteBuf = new ExtendedByteBuf(byteBuf);
-        int transactionId = extendedByteBuf.readVarInt();
-        int messageId = extendedByteBuf.readVarInt();
-        Message<?> message = protocol.getDeserializer(messageId).apply(extendedByteBuf);
-        message.setTransactionId(transactionId);
-        list.add(message);
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) throws DataFormatException {
+        long startTime = 0;
+        ByteBuf decompressed = null;
+        if (compressed) {
+            int uncompressedLength = new ExtendedByteBuf(byteBuf).readVarInt();
+            if (uncompressedLength != 0) {
+                startTime = System.nanoTime();
+                decompressed = decompress(channelHandlerContext, byteBuf, uncompressedLength);
+                byteBuf = decompressed;
+            }
+        }
+
+        try {
+            ExtendedByteBuf extendedByteBuf = new ExtendedByteBuf(byteBuf).setStringDictionary(stringDictionary);
+            int transactionId = extendedByteBuf.readVarInt();
+            int messageId = extendedByteBuf.readVarInt();
+            Message<?> message = protocol.getDeserializer(messageId).apply(extendedByteBuf);
+            message.setTransactionId(transactionId);
+            list.add(message);
+
+            if (decompressed != null) {
+                CompressionStats.recordDecompression(message.getClass(), System.nanoTime() - startTime);
+            }
+
+            if (message instanceof SetCompressionMessage || message instanceof CompressionEnabledMessage) {
+                // Every message after this one has been sent compressed
+                compressed = true;
+            }
+
+            if (message instanceof EnableStringDictionaryMessage || message instanceof StringDictionaryEnabledMessage) {
+                // Every message after this one uses the dictionary
+                stringDictionary = new StringDictionary();
+            }
+        } finally {
+            if (decompressed != null) {
+                decompressed.release();
+            }
+        }
+    }
+
+    private ByteBuf decompress(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, int uncompressedLength) throws DataFormatException {
+        if (uncompressedLength < 0 || uncompressedLength > MAX_UNCOMPRESSED_LENGTH) {
+            throw new DecoderException("Badly compressed message of length " + uncompressedLength);
+        }
+
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+
+        ByteBuf decompressed = channelHandlerContext.alloc().directBuffer(uncompressedLength);
+        try {
+            inflater.setInput(byteBuf.nioBuffer());
+            ByteBuffer output = decompressed.nioBuffer(0, uncompressedLength);
+            while (output.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(output) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DecoderException("Compressed message is shorter than its length of " + uncompressedLength);
+                }
+            }
+            decompressed.writerIndex(uncompressedLength - output.remaining());
+            byteBuf.skipBytes(byteBuf.readableBytes());
+        } catch (Throwable throwable) {
+            decompressed.release();
+            throw throwable;
+        } finally {
+            inflater.reset();
+        }
+        return decompressed;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
     }
 }
@@ -1,24 +1,163 @@
 package puregero.multipaper.mastermessagingprotocol;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import puregero.multipaper.mastermessagingprotocol.messages.Message;
 import puregero.multipaper.mastermessagingprotocol.messages.Protocol;
 
-public class MessageEncoder<T extends Message<?>> extends MessageToByteEncoder<Message<?>> {
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a message along with its length prefix. Space for the longest
+ * possible header is reserved at the start of the buffer, and the header is
+ * filled in once the message has been written, so that the message never
+ * has to be copied to prepend its length.
+ *
+ * Once compression has been enabled the length is followed by the
+ * uncompressed length of the message, or 0 if it wasn't worth compressing.
+ */
+public class MessageEncoder<T extends Message<?>> extends MessageToMessageEncoder<Message<?>> {
+
+    private static final int MAX_HEADER_SIZE = 10;
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("multipaper.compression.level", Deflater.DEFAULT_COMPRESSION);
 
     private final Protocol<T> protocol;
+    private volatile int compressionThreshold = -1;
+    private Deflater deflater;
+    private StringDictionary stringDictionary;
 
     public MessageEncoder(Protocol<T> protocol) {
         this.protocol = protocol;
     }
 
+    /**
+     * Write the message uncompressed, and then compress every following
+     * message that is at least threshold bytes long. The other side must
+     * start decompressing once it receives the message.
+     */
+    public static void sendAndEnableCompression(Channel channel, Message<?> message, int threshold) {
+        sendThen(channel, message, encoder -> encoder.compressionThreshold = threshold);
+    }
+
+    /**
+     * Write the message, and then send the strings in every following message
+     * through a StringDictionary. The other side must start reading them from
+     * its own dictionary once it receives the message.
+     */
+    public static void sendAndEnableStringDictionary(Channel channel, Message<?> message) {
+        sendThen(channel, message, encoder -> encoder.stringDictionary = new StringDictionary());
+    }
+
+    private static void sendThen(Channel channel, Message<?> message, Consumer<MessageEncoder<?>> action) {
+        channel.eventLoop().execute(() -> {
+            channel.writeAndFlush(message);
+            action.accept(channel.pipeline().get(MessageEncoder.class));
+        });
+    }
+
+    public boolean isCompressing() {
+        return compressionThreshold >= 0;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext channelHandlerContext, Message<?> message, List<Object> list) {
+        int estimatedSize = MAX_HEADER_SIZE * 2 + message.estimateSize();
+        ExtendedByteBuf extendedByteBuf = new ExtendedByteBuf(channelHandlerContext.alloc().directBuffer(estimatedSize), true)
+                .setStringDictionary(stringDictionary);
+        try {
+            extendedByteBuf.writerIndex(MAX_HEADER_SIZE);
+            extendedByteBuf.writeVarInt(message.getTransactionId());
+            extendedByteBuf.writeVarInt(protocol.getMessageId((T) message));
+            message.write(extendedByteBuf);
+        } catch (Throwable throwable) {
+            extendedByteBuf.finishWriting().release();
+            if (stringDictionary != null) {
+                // The other side's dictionary won't match ours anymore
+                channelHandlerContext.close();
+            }
+            throw throwable;
+        }
+
+        ByteBuf byteBuf = extendedByteBuf.finishWriting();
+        int length = byteBuf.writerIndex() - MAX_HEADER_SIZE;
+        int start = MAX_HEADER_SIZE;
+
+        if (compressionThreshold >= 0) {
+            ByteBuf compressed = length >= compressionThreshold ? compress(channelHandlerContext, message, byteBuf, length) : null;
+            if (compressed != null) {
+                byteBuf.release();
+                byteBuf = compressed;
+                start = prependVarInt(byteBuf, start, length);
+            } else {
+                start = prependVarInt(byteBuf, start, 0);
+            }
+        }
+
+        // Write the length so that it ends right where the rest of the message starts
+        start = prependVarInt(byteBuf, start, byteBuf.writerIndex() - start);
+        byteBuf.readerIndex(start);
+
+        list.add(byteBuf);
+    }
+
+    /**
+     * @return The compressed message with room for the header, or null if
+     *         it didn't get any smaller
+     */
+    private ByteBuf compress(ChannelHandlerContext channelHandlerContext, Message<?> message, ByteBuf byteBuf, int length) {
+        long startTime = System.nanoTime();
+        if (deflater == null) {
+            deflater = new Deflater(COMPRESSION_LEVEL);
+        }
+
+        ByteBuf compressed = channelHandlerContext.alloc().directBuffer(MAX_HEADER_SIZE + length / 2 + 64);
+        try {
+            compressed.writerIndex(MAX_HEADER_SIZE);
+            deflater.setInput(byteBuf.nioBuffer(MAX_HEADER_SIZE, length));
+            deflater.finish();
+            while (!deflater.finished() && compressed.writerIndex() - MAX_HEADER_SIZE < length) {
+                compressed.ensureWritable(Math.max(256, length / 4));
+                int written = deflater.deflate(compressed.nioBuffer(compressed.writerIndex(), compressed.writableBytes()));
+                compressed.writerIndex(compressed.writerIndex() + written);
+            }
+        } catch (Throwable throwable) {
+            compressed.release();
+            throw throwable;
+        } finally {
+            deflater.reset();
+        }
+
+        int compressedLength = compressed.writerIndex() - MAX_HEADER_SIZE;
+        if (compressedLength >= length) {
+            compressed.release();
+            compressedLength = length;
+            compressed = null;
+        }
+
+        CompressionStats.recordCompression(message.getClass(), length, compressedLength, System.nanoTime() - startTime);
+        return compressed;
+    }
+
+    /* write a VarInt that ends right before the given index */
+    private static int prependVarInt(ByteBuf byteBuf, int end, int value) {
+        int start = end - ExtendedByteBuf.getVarIntSize(value);
+        int writerIndex = byteBuf.writerIndex();
+        byteBuf.writerIndex(start);
+        new ExtendedByteBuf(byteBuf).writeVarInt(value);
+        byteBuf.writerIndex(writerIndex);
+        return start;
+    }
+
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, Message<?> message, ByteBuf byteBuf) {
-        ExtendedByteBuf extendedByteBuf = new ExtendedByteBuf(byteBuf);
-        extendedByteBuf.writeVarInt(message.getTransactionId());
-        extendedByteBuf.writeVarInt(protocol.getMessageId((T) message));
-        message.write(extendedByteBuf);
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        super.handlerRemoved(ctx);
     }
 }
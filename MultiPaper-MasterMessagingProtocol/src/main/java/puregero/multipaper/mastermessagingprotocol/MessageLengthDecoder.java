@@ -35,6 +35,7 @@ public class MessageLengthDecoder extends ByteToMessageDecoder {
             return;
         }
 
-        list.add(byteBuf.readBytes(length));
+        // A slice of the received bytes rather than a copy, it's released once the message has been decoded
+        list.add(byteBuf.readRetainedSlice(length));
     }
 }
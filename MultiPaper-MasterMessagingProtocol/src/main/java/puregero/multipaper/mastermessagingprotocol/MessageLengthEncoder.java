@@ -2,13 +2,16 @@ package puregero.multipaper.mastermessagingprotocol;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
-public class MessageLengthEncoder extends MessageToByteEncoder<ByteBuf> {
+import java.util.List;
+
+public class MessageLengthEncoder extends MessageToMessageEncoder<ByteBuf> {
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, ByteBuf byteBufDest) {
-        ExtendedByteBuf extendedByteBuf = new ExtendedByteBuf(byteBufDest);
-        extendedByteBuf.writeVarInt(byteBuf.readableBytes());
-        extendedByteBuf.writeBytes(byteBuf);
+    protected void encode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
+        // Prepend the length without copying the message
+        ByteBuf length = channelHandlerContext.alloc().buffer(5);
+        new ExtendedByteBuf(length).writeVarInt(byteBuf.readableBytes());
+        list.add(channelHandlerContext.alloc().compositeBuffer(2).addComponents(true, length, byteBuf.retain()));
     }
 }
@@ -0,0 +1,31 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.MessageSizeEstimator;
+import puregero.multipaper.mastermessagingprotocol.messages.Message;
+
+/**
+ * Counts messages that haven't been encoded yet by their estimated size, so
+ * that the write buffer watermarks include them.
+ */
+public class ProtocolMessageSizeEstimator implements MessageSizeEstimator {
+
+    public static final ProtocolMessageSizeEstimator INSTANCE = new ProtocolMessageSizeEstimator();
+
+    private static final Handle HANDLE = message -> {
+        if (message instanceof Message<?> protocolMessage) {
+            return protocolMessage.estimateSize();
+        } else if (message instanceof ByteBuf byteBuf) {
+            return byteBuf.readableBytes();
+        }
+        return 8;
+    };
+
+    private ProtocolMessageSizeEstimator() {
+    }
+
+    @Override
+    public Handle newHandle() {
+        return HANDLE;
+    }
+}
@@ -0,0 +1,94 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests in flight and their round trip times per request type, summed over
+ * every channel. Round trip times are kept in power of two millisecond
+ * buckets.
+ */
+public class RequestStats {
+
+    private static final int BUCKETS = 20; // up to 2^19 ms, about 9 minutes
+    private static final Map<Class<?>, RequestStats> stats = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder[] roundTripMillis = new LongAdder[BUCKETS];
+
+    private RequestStats(Class<?> type) {
+        this.name = type.getSimpleName();
+        for (int i = 0; i < roundTripMillis.length; i++) {
+            roundTripMillis[i] = new LongAdder();
+        }
+    }
+
+    private static RequestStats get(Class<?> type) {
+        return stats.computeIfAbsent(type, RequestStats::new);
+    }
+
+    public static void recordSent(Class<?> type) {
+        get(type).inFlight.increment();
+    }
+
+    public static void recordReply(Class<?> type, long nanos) {
+        RequestStats typeStats = get(type);
+        typeStats.inFlight.decrement();
+        typeStats.completed.increment();
+
+        long millis = nanos / 1000000;
+        int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        typeStats.roundTripMillis[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    public static void recordTimeout(Class<?> type) {
+        RequestStats typeStats = get(type);
+        typeStats.inFlight.decrement();
+        typeStats.timedOut.increment();
+    }
+
+    public static void recordFailure(Class<?> type) {
+        RequestStats typeStats = get(type);
+        typeStats.inFlight.decrement();
+        typeStats.failed.increment();
+    }
+
+    /* the upper bound of the bucket the percentile falls in */
+    private long percentileMillis(long total, double percentile) {
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < roundTripMillis.length; i++) {
+            seen += roundTripMillis[i].sum();
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * @return One line per request type, the most requests first
+     */
+    public static List<String> getStats() {
+        List<RequestStats> sorted = new ArrayList<>(stats.values());
+        sorted.sort(Comparator.comparingLong((RequestStats typeStats) -> typeStats.completed.sum()).reversed());
+
+        List<String> lines = new ArrayList<>();
+        for (RequestStats typeStats : sorted) {
+            long completed = typeStats.completed.sum();
+            lines.add(String.format("%s: %d in flight, %d replied, %d timed out, %d failed, p50 <%dms, p99 <%dms",
+                    typeStats.name, typeStats.inFlight.sum(), completed, typeStats.timedOut.sum(), typeStats.failed.sum(),
+                    completed == 0 ? 0 : typeStats.percentileMillis(completed, 0.5),
+                    completed == 0 ? 0 : typeStats.percentileMillis(completed, 0.99)));
+        }
+        return lines;
+    }
+}
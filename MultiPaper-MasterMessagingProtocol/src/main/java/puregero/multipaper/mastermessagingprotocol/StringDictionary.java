@@ -0,0 +1,48 @@
+package puregero.multipaper.mastermessagingprotocol;
+
+import io.netty.handler.codec.DecoderException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The strings that have already been sent in one direction of a connection,
+ * such as world and server names. Once a string has been sent it is referred
+ * to by its index. Both sides add strings in the same order, so they never
+ * need to exchange the indices.
+ */
+public class StringDictionary {
+
+    private static final int MAX_SIZE = 4096;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * @return The string's index, or -1 if it hasn't been sent yet
+     */
+    public int getId(String string) {
+        Integer id = ids.get(string);
+        return id == null ? -1 : id;
+    }
+
+    public String get(int id) {
+        if (id < 0 || id >= strings.size()) {
+            throw new DecoderException("Unknown string id " + id);
+        }
+        return strings.get(id);
+    }
+
+    /**
+     * Add a string that has just been sent in full. It's ignored once the
+     * dictionary is full, on both sides.
+     */
+    public void add(String string) {
+        if (strings.size() < MAX_SIZE) {
+            ids.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+}
@@ -3,17 +3,33 @@ package puregero.multipaper.mastermessagingprotocol.datastream;
 import io.netty.channel.Channel;
 import puregero.multipaper.mastermessagingprotocol.messages.Message;
 import puregero.multipaper.mastermessagingprotocol.messages.MessageHandler;
+import puregero.multipaper.mastermessagingprotocol.messages.ProtocolFeatures;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+/**
+ * Streams are flow controlled when the other side supports it: the sender
+ * only has a window's worth of data unacknowledged at a time, and the
+ * receiver acknowledges data once it has been consumed.
+ */
 public class DataStreamManager<T extends Message> {
+    // Data can arrive before its stream has been created, hold on to a bounded amount of it
+    private static final int MAX_PENDING_STREAMS = 256;
+    private static final long MAX_PENDING_BYTES = Long.getLong("multipaper.datastream.pending.limit.mb", 64L) * 1024 * 1024;
+
     private final AtomicInteger streamIdIncrementer = new AtomicInteger(1);
     final Map<Integer, InboundDataStream> inboundDataStreams = new ConcurrentHashMap<>();
+    final Map<Integer, OutboundDataStream> outboundDataStreams = new ConcurrentHashMap<>();
+    private final Map<Integer, List<byte[]>> pendingInboundData = new LinkedHashMap<>();
+    private long pendingInboundBytes = 0;
     private final MessageHandler<T> messageHandler;
 
     public DataStreamManager(MessageHandler<T> messageHandler) {
@@ -21,38 +37,86 @@ public class DataStreamManager<T extends Message> {
     }
 
     public OutboundDataStream createOutboundDataStream(Channel channel) {
-        return new OutboundDataStream(this, channel, streamIdIncrementer.incrementAndGet());
+        return new OutboundDataStream(this, channel, streamIdIncrementer.incrementAndGet(), isFlowControlled());
     }
 
     public InboundDataStream createInboundDataStream(Channel channel, int streamId) {
-        return new InboundDataStream(this, channel, streamId);
+        InboundDataStream dataStream = new InboundDataStream(this, channel, streamId);
+
+        synchronized (pendingInboundData) {
+            inboundDataStreams.put(streamId, dataStream);
+
+            // Hand over anything that arrived early while still holding the lock, so that newer data can't overtake it
+            List<byte[]> pending = pendingInboundData.remove(streamId);
+            if (pending != null) {
+                for (byte[] data : pending) {
+                    pendingInboundBytes -= data.length;
+                    dataStream.doData(data);
+                }
+            }
+        }
+
+        return dataStream;
     }
 
     public InboundDataStream createInboundDataStream(Channel channel, int streamId, Consumer<byte[]> onData, Runnable onClose) {
-        return new InboundDataStream(this, channel, streamId).onData(onData).onClose(onClose);
+        return createInboundDataStream(channel, streamId).onData(onData).onClose(onClose);
     }
 
     public void handleInboundData(int streamId, byte[] data) {
-        handleInboundData(streamId, data, 0);
+        InboundDataStream dataStream;
+
+        synchronized (pendingInboundData) {
+            dataStream = inboundDataStreams.get(streamId);
+
+            if (dataStream == null) {
+                addPendingInboundData(streamId, data);
+                return;
+            }
+        }
+
+        dataStream.doData(data);
     }
 
-    public void handleInboundData(int streamId, byte[] data, int recursive) {
-        InboundDataStream dataStream = inboundDataStreams.get(streamId);
+    /* must be called while holding the lock on pendingInboundData */
+    private void addPendingInboundData(int streamId, byte[] data) {
+        pendingInboundData.computeIfAbsent(streamId, key -> new ArrayList<>()).add(data);
+        pendingInboundBytes += data.length;
 
-        if (dataStream == null && recursive < 5) {
-            CompletableFuture.delayedExecutor(250, TimeUnit.MILLISECONDS).execute(() -> handleInboundData(streamId, data, recursive + 1));
-            return;
+        Iterator<Map.Entry<Integer, List<byte[]>>> iterator = pendingInboundData.entrySet().iterator();
+        while ((pendingInboundData.size() > MAX_PENDING_STREAMS || pendingInboundBytes > MAX_PENDING_BYTES) && iterator.hasNext()) {
+            Map.Entry<Integer, List<byte[]>> oldest = iterator.next();
+            iterator.remove();
+            for (byte[] pending : oldest.getValue()) {
+                pendingInboundBytes -= pending.length;
+            }
+            System.err.println("Dropping data for unknown data stream with streamId=" + oldest.getKey());
         }
+    }
 
-        if (dataStream == null) {
-            throw new IllegalArgumentException("Unknown data stream with streamId=" + streamId);
+    public void handleAck(int streamId, int length) {
+        OutboundDataStream dataStream = outboundDataStreams.get(streamId);
+        if (dataStream != null) {
+            dataStream.ack(length);
         }
+    }
 
-        dataStream.doData(data);
+    boolean isFlowControlled() {
+        return messageHandler.hasProtocolFeature(ProtocolFeatures.DATA_STREAM_WINDOW);
+    }
+
+    void sendAck(Channel channel, int streamId, int length) {
+        if (isFlowControlled()) {
+            channel.writeAndFlush(messageHandler.createDataStreamAckMessage(streamId, length));
+        }
     }
 
     public T createDataStreamMessage(int streamId, byte[] data, int offset, int length) {
         return messageHandler.createDataStreamMessage(streamId, data, offset, length);
     }
 
+    public Message<?> createDataStreamMessage(int streamId, ByteBuffer data) {
+        return messageHandler.createDataStreamMessage(streamId, data);
+    }
+
 }
@@ -25,11 +25,16 @@ public class DataStreamMessage<T extends MessageHandler<? extends Message<?>>> e
         length = data.length;
     }
 
+    @Override
+    public int estimateSize() {
+        return 10 + ExtendedByteBuf.estimateLargeBytesSize(length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeVarInt(streamId);
         byteBuf.writeVarInt(length);
-        byteBuf.writeBytes(data, offset, length);
+        byteBuf.writeLargeBytes(data, offset, length);
     }
 
     @Override
@@ -6,6 +6,7 @@ import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelPromise;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
@@ -15,47 +16,57 @@ public class InboundDataStream {
     private final DataStreamManager<?> manager;
     private final Channel channel;
     private final int streamId;
-    List<Consumer<byte[]>> dataHandlers = new ArrayList<>();
-    List<Runnable> closeHandlers = new ArrayList<>();
+    private final List<Consumer<byte[]>> dataHandlers = new ArrayList<>();
+    private final List<Runnable> closeHandlers = new ArrayList<>();
+    // Data that arrived before there was anything to handle it
+    private final List<byte[]> buffered = new ArrayList<>();
+    private boolean closed = false;
+    private boolean ackWhenConsumed = false;
 
     InboundDataStream(DataStreamManager<?> manager, Channel channel, int streamId) {
         this.manager = manager;
         this.channel = channel;
         this.streamId = streamId;
-        manager.inboundDataStreams.put(streamId, this);
     }
 
     public int getStreamId() {
         return streamId;
     }
 
-    public InboundDataStream onData(Consumer<byte[]> onData) {
+    public synchronized InboundDataStream onData(Consumer<byte[]> onData) {
         dataHandlers.add(onData);
+
+        if (dataHandlers.size() == 1 && !buffered.isEmpty()) {
+            buffered.forEach(this::handleData);
+            buffered.clear();
+
+            if (closed) {
+                handleClose();
+            }
+        }
+
         return this;
     }
 
-    public InboundDataStream onClose(Runnable onClose) {
-        closeHandlers.add(onClose);
+    public synchronized InboundDataStream onClose(Runnable onClose) {
+        if (closed && buffered.isEmpty()) {
+            onClose.run();
+        } else {
+            closeHandlers.add(onClose);
+        }
         return this;
     }
 
+    /**
+     * Read the stream, data is only acknowledged once it has been read.
+     */
     public InputStream createInputStream() throws IOException {
-        PipedInputStream inputStream = new PipedInputStream();
-        PipedOutputStream outputStream = new PipedOutputStream(inputStream);
-        onData(data -> {
-            try {
-                outputStream.write(data);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        onClose(() -> {
-            try {
-                outputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        ChunkInputStream inputStream = new ChunkInputStream();
+        synchronized (this) {
+            ackWhenConsumed = true;
+        }
+        onData(inputStream::add);
+        onClose(inputStream::end);
         return inputStream;
     }
 
@@ -81,17 +92,96 @@ public class InboundDataStream {
         return promise;
     }
 
-    void doData(byte[] data) {
+    synchronized void doData(byte[] data) {
         if (data.length == 0) {
-            doClose();
+            closed = true;
+            if (buffered.isEmpty()) {
+                handleClose();
+            }
+        } else if (dataHandlers.isEmpty()) {
+            buffered.add(data);
         } else {
-            dataHandlers.forEach(handler -> handler.accept(data));
+            handleData(data);
+        }
+    }
+
+    private void handleData(byte[] data) {
+        dataHandlers.forEach(handler -> handler.accept(data));
+        if (!ackWhenConsumed) {
+            manager.sendAck(channel, streamId, data.length);
         }
     }
 
-    void doClose() {
+    private void handleClose() {
         closeHandlers.forEach(Runnable::run);
+        closeHandlers.clear();
         manager.inboundDataStreams.remove(streamId, this);
     }
 
+    private class ChunkInputStream extends InputStream {
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current = null;
+        private int position = 0;
+        private boolean ended = false;
+
+        private synchronized void add(byte[] data) {
+            chunks.add(data);
+            notifyAll();
+        }
+
+        private synchronized void end() {
+            ended = true;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (current == null) {
+                current = chunks.poll();
+                position = 0;
+                if (current == null) {
+                    if (ended) {
+                        return -1;
+                    }
+
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+
+            int length = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, length);
+            position += length;
+
+            if (position == current.length) {
+                manager.sendAck(channel, streamId, current.length);
+                current = null;
+            }
+
+            return length;
+        }
+
+        @Override
+        public synchronized int available() {
+            if (current != null) {
+                return current.length - position;
+            }
+            byte[] next = chunks.peek();
+            return next == null ? 0 : next.length;
+        }
+    }
+
 }
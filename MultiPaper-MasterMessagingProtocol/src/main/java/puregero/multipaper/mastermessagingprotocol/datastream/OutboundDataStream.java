@@ -8,36 +8,70 @@ import io.netty.channel.DefaultChannelPromise;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class OutboundDataStream {
 
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAPPED_SEGMENT_SIZE = 16 * 1024 * 1024;
+    // How much may be sent before the other side has to acknowledge it
+    private static final int WINDOW_SIZE = Integer.getInteger("multipaper.datastream.window.kb", 1024) * 1024;
+
     private final DataStreamManager<?> manager;
     private final Channel channel;
     private final int streamId;
+    private final boolean flowControlled;
+
+    // Only accessed from the channel's event loop
+    private ChunkSource source;
+    private ChannelPromise copyPromise;
+    private boolean sentEverything = false;
+    private long unacknowledged = 0;
 
-    OutboundDataStream(DataStreamManager<?> manager, Channel channel, int streamId) {
+    OutboundDataStream(DataStreamManager<?> manager, Channel channel, int streamId, boolean flowControlled) {
         this.manager = manager;
         this.channel = channel;
         this.streamId = streamId;
+        this.flowControlled = flowControlled;
     }
 
     public int getStreamId() {
         return streamId;
     }
 
+    /**
+     * Send a copy of the bytes, the array may be reused as soon as this
+     * returns.
+     */
     public ChannelFuture send(byte[] bytes, int offset, int length) {
-        if (bytes.length > 0) {
-            return channel.writeAndFlush(manager.createDataStreamMessage(streamId, bytes, offset, length));
-        } else {
-            return new DefaultChannelPromise(channel).setSuccess();
-        }
+        return sendWithoutCopying(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
     }
 
     public ChannelFuture send(byte[] bytes) {
         return send(bytes, 0, bytes.length);
     }
 
+    /**
+     * Send the bytes without copying them. Large arrays are written straight
+     * to the socket, so the array must not be modified until the returned
+     * future has completed.
+     */
+    public ChannelFuture sendWithoutCopying(byte[] bytes, int offset, int length) {
+        // An empty message would end the stream
+        if (length > 0) {
+            return channel.writeAndFlush(manager.createDataStreamMessage(streamId, bytes, offset, length));
+        } else {
+            return new DefaultChannelPromise(channel).setSuccess();
+        }
+    }
+
     public ChannelFuture endStream() {
+        manager.outboundDataStreams.remove(streamId, this);
         return channel.writeAndFlush(manager.createDataStreamMessage(streamId, new byte[0], 0, 0));
     }
 
@@ -51,7 +85,8 @@ public class OutboundDataStream {
             @Override
             public void write(byte[] b, int o, int l) throws IOException {
                 try {
-                    send(b, o, l).await();
+                    // Waits for the write, so the caller can reuse the array straight away
+                    sendWithoutCopying(b, o, l).await();
                 } catch (InterruptedException e) {
                     throw new IOException(e);
                 }
@@ -64,25 +99,181 @@ public class OutboundDataStream {
         };
     }
 
+    /**
+     * Send everything in the input stream and then end this stream. The input
+     * stream is closed once it has been sent.
+     */
     public ChannelFuture copyFromAsync(InputStream in) {
+        return copyFromAsync(new InputStreamSource(in));
+    }
+
+    /**
+     * Send the file without copying it onto the heap by mapping it into
+     * memory, and then end this stream. The file is closed once it has been
+     * sent.
+     */
+    public ChannelFuture copyFromAsync(FileChannel file) {
+        return copyFromAsync(new MappedFileSource(file));
+    }
+
+    private ChannelFuture copyFromAsync(ChunkSource source) {
         ChannelPromise promise = new DefaultChannelPromise(channel);
-        byte[] buffer = new byte[64 * 1024];
-        doCopyFrom(in, promise, buffer);
+        channel.eventLoop().execute(() -> {
+            this.source = source;
+            this.copyPromise = promise;
+            manager.outboundDataStreams.put(streamId, this);
+            sendChunks();
+        });
         return promise;
     }
 
-    private void doCopyFrom(InputStream in, ChannelPromise promise, byte[] buffer) {
+    /* must be called from the channel's event loop */
+    private void sendChunks() {
+        // Without flow control, wait for each chunk to be written before sending the next one
+        long window = flowControlled ? WINDOW_SIZE : 1;
+
         try {
+            while (!sentEverything && !copyPromise.isDone() && unacknowledged < window) {
+                if (!channel.isActive()) {
+                    fail(new ClosedChannelException());
+                    return;
+                }
+
+                if (!channel.isWritable()) {
+                    // Let the other side catch up before queueing any more bulk data
+                    channel.eventLoop().schedule(this::sendChunks, 10, TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                int length = source.sendNext();
+                if (length < 0) {
+                    sentEverything = true;
+                    source.close();
+                    ChannelPromise promise = copyPromise;
+                    endStream().addListener(future -> {
+                        if (future.isSuccess()) {
+                            promise.trySuccess();
+                        } else {
+                            promise.tryFailure(future.cause());
+                        }
+                    });
+                    return;
+                }
+                unacknowledged += length;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void ack(int length) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> ack(length));
+            return;
+        }
+
+        unacknowledged -= length;
+        if (copyPromise != null) {
+            sendChunks();
+        }
+    }
+
+    private void onWritten(ChannelFuture future, int length) {
+        if (!future.isSuccess()) {
+            fail(future.cause());
+        } else if (!flowControlled) {
+            ack(length);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        manager.outboundDataStreams.remove(streamId, this);
+        if (copyPromise.tryFailure(cause)) {
+            source.close();
+        }
+    }
+
+    private interface ChunkSource {
+        /**
+         * @return The number of bytes sent, or -1 if there's nothing left
+         */
+        int sendNext() throws IOException;
+
+        void close();
+    }
+
+    private class InputStreamSource implements ChunkSource {
+        private final InputStream in;
+        // Large chunks are sent without being copied, so a buffer is only reused once it has been written to the socket
+        private final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+
+        private InputStreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int sendNext() throws IOException {
+            byte[] buffer = buffers.isEmpty() ? new byte[CHUNK_SIZE] : buffers.poll();
             int length = in.read(buffer);
             if (length <= 0) {
+                return -1;
+            }
+
+            sendWithoutCopying(buffer, 0, length).addListener(future -> {
+                buffers.add(buffer);
+                onWritten((ChannelFuture) future, length);
+            });
+            return length;
+        }
+
+        @Override
+        public void close() {
+            try {
                 in.close();
-                endStream().addListener(future -> promise.setSuccess());
-                return;
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+        }
+    }
 
-            send(buffer, 0, length).addListener(future -> doCopyFrom(in, promise, buffer));
-        } catch (IOException e) {
-            promise.setFailure(e);
+    private class MappedFileSource implements ChunkSource {
+        private final FileChannel file;
+        private ByteBuffer segment = null;
+        private long segmentStart = 0;
+
+        private MappedFileSource(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public int sendNext() throws IOException {
+            if (segment == null || !segment.hasRemaining()) {
+                long position = segment == null ? 0 : segmentStart + segment.capacity();
+                long size = file.size();
+                if (position >= size) {
+                    return -1;
+                }
+
+                segmentStart = position;
+                segment = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_SEGMENT_SIZE, size - position));
+            }
+
+            int length = Math.min(CHUNK_SIZE, segment.remaining());
+            ByteBuffer chunk = segment.slice(segment.position(), length);
+            segment.position(segment.position() + length);
+
+            channel.writeAndFlush(manager.createDataStreamMessage(streamId, chunk))
+                    .addListener(future -> onWritten((ChannelFuture) future, length));
+            return length;
+        }
+
+        @Override
+        public void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -2,6 +2,12 @@ package puregero.multipaper.mastermessagingprotocol.messages;
 
 import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
 
+/**
+ * A message sent between the master and its servers. Large byte arrays given
+ * to a message are written to the socket without being copied, so they must
+ * not be modified after the message has been sent until the send has
+ * completed.
+ */
 public abstract class Message<T extends MessageHandler<? extends Message<?>>> {
 
     private int transactionId;
@@ -14,6 +20,23 @@ public abstract class Message<T extends MessageHandler<? extends Message<?>>> {
         this.transactionId = transactionId;
     }
 
+    /**
+     * Whether this is the last reply to a request. The request's callback is
+     * kept, and called again, for every reply until the last one.
+     */
+    public boolean isLastReply() {
+        return true;
+    }
+
+    /**
+     * An estimate of how many bytes write() will write, used to size the
+     * buffer up front. It doesn't need to be exact, the buffer grows if it's
+     * too small.
+     */
+    public int estimateSize() {
+        return 64;
+    }
+
     public abstract void write(ExtendedByteBuf byteBuf);
 
     public abstract void handle(T handler);
@@ -1,19 +1,36 @@
 package puregero.multipaper.mastermessagingprotocol.messages;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import puregero.multipaper.mastermessagingprotocol.datastream.DataStreamManager;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public abstract class MessageHandler<T extends Message> extends SimpleChannelInboundHandler<T> {
 
-    private final Map<Integer, Consumer<T>> callbacks = new ConcurrentHashMap<>();
+    private final TransactionTable<T> callbacks = new TransactionTable<>();
     private final AtomicInteger transactionId = new AtomicInteger(1);
     private final DataStreamManager<T> dataStreamManager = new DataStreamManager<>(this);
+    private volatile Channel channel;
+    private volatile int protocolFeatures = 0;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        channel.closeFuture().addListener(future -> callbacks.failAll(new ClosedChannelException()));
+        super.handlerAdded(ctx);
+    }
+
+    /**
+     * @return The channel this handler has been added to
+     */
+    public Channel getChannel() {
+        return channel;
+    }
 
     public DataStreamManager<T> getDataStreamManager() {
         return dataStreamManager;
@@ -23,12 +40,53 @@ public abstract class MessageHandler<T extends Message> extends SimpleChannelInb
         throw new UnsupportedOperationException();
     }
 
+    public Message<?> createDataStreamMessage(int streamId, ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return createDataStreamMessage(streamId, bytes, 0, bytes.length);
+    }
+
+    public Message<?> createDataStreamAckMessage(int streamId, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param protocolFeatures The ProtocolFeatures supported by the other side
+     */
+    public void setProtocolFeatures(int protocolFeatures) {
+        this.protocolFeatures = protocolFeatures;
+    }
+
+    public boolean hasProtocolFeature(int feature) {
+        return (protocolFeatures & feature) != 0;
+    }
+
+    /**
+     * Call the callback with the reply to this message. If no reply arrives
+     * in time, or the channel closes first, the callback is dropped.
+     */
     public <X extends Message<?>> X setCallback(X message, Consumer<T> callback) {
+        return setCallback(message, callback, null);
+    }
+
+    /**
+     * Call the callback with the reply to this message, or onFailure with a
+     * TimeoutException if no reply arrives in time or a
+     * ClosedChannelException if the channel closes first.
+     */
+    public <X extends Message<?>> X setCallback(X message, Consumer<T> callback, Consumer<Throwable> onFailure) {
         message.setTransactionId(transactionId.incrementAndGet());
-        callbacks.put(message.getTransactionId(), callback);
+        callbacks.add(message.getTransactionId(), message.getClass(), callback, onFailure);
         return message;
     }
 
+    /**
+     * @return How many requests are waiting for a reply
+     */
+    public int getRequestsInFlight() {
+        return callbacks.size();
+    }
+
     /**
      * Called when a message is received.
      * @param message The message that has been received
@@ -41,7 +99,7 @@ public abstract class MessageHandler<T extends Message> extends SimpleChannelInb
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, T message) {
-        Consumer<T> callback = callbacks.remove(message.getTransactionId());
+        Consumer<T> callback = callbacks.reply(message.getTransactionId(), message.isLastReply());
         if (callback != null) {
             callback.accept(message);
             return;
@@ -2,22 +2,41 @@ package puregero.multipaper.mastermessagingprotocol.messages;
 
 import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Function;
 
 public class Protocol<T extends Message<?>> {
 
-    private final List<Class<? extends T>> MESSAGES = new ArrayList<>();
-    private final List<Function<ExtendedByteBuf, T>> MESSAGE_DESERIALIZERS = new ArrayList<>();
+    private final Map<Class<?>, Integer> messageIds = new HashMap<>();
+    private Function<ExtendedByteBuf, T>[] deserializers = newArray(0);
+
+    // Caches each class's id on the class itself, so that looking it up doesn't need to hash the class
+    private final ClassValue<Integer> classIds = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> clazz) {
+            synchronized (messageIds) {
+                return messageIds.getOrDefault(clazz, -1);
+            }
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static <T> Function<ExtendedByteBuf, T>[] newArray(int length) {
+        return (Function<ExtendedByteBuf, T>[]) new Function<?, ?>[length];
+    }
 
     protected void addMessage(Class<? extends T> clazz, Function<ExtendedByteBuf, T> deserializer) {
-        MESSAGES.add(clazz);
-        MESSAGE_DESERIALIZERS.add(deserializer);
+        synchronized (messageIds) {
+            messageIds.put(clazz, deserializers.length);
+            deserializers = Arrays.copyOf(deserializers, deserializers.length + 1);
+            deserializers[deserializers.length - 1] = deserializer;
+        }
     }
 
     public int getMessageId(T message) {
-        int id = MESSAGES.indexOf(message.getClass());
+        int id = classIds.get(message.getClass());
         if (id == -1) {
             System.err.println("Unknown message " + message);
             throw new IllegalArgumentException("Unknown message " + message);
@@ -26,6 +45,10 @@ public class Protocol<T extends Message<?>> {
     }
 
     public Function<ExtendedByteBuf, T> getDeserializer(int messageId) {
-        return MESSAGE_DESERIALIZERS.get(messageId);
+        Function<ExtendedByteBuf, T>[] deserializers = this.deserializers;
+        if (messageId < 0 || messageId >= deserializers.length) {
+            throw new IllegalArgumentException("Unknown message id " + messageId);
+        }
+        return deserializers[messageId];
     }
 }
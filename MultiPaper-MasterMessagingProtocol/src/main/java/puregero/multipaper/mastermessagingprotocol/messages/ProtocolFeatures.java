@@ -0,0 +1,27 @@
+package puregero.multipaper.mastermessagingprotocol.messages;
+
+/**
+ * Optional protocol features, sent as a bitmask by servers in their
+ * HelloMessage. Servers built against an older protocol send none. Masters
+ * reply with a ProtocolFeaturesMessage if the server has DATA_STREAM_WINDOW.
+ */
+public class ProtocolFeatures {
+
+    /* understands SetCellOwnerMessage, AddCellSubscriberMessage and RemoveCellSubscriberMessage */
+    public static final int CELL_OWNERSHIP = 1;
+
+    /* understands SetCompressionMessage and compressed messages */
+    public static final int COMPRESSION = 2;
+
+    /* understands EnableStringDictionaryMessage and dictionary encoded strings */
+    public static final int STRING_DICTIONARY = 4;
+
+    /* acknowledges data streams and understands ProtocolFeaturesMessage */
+    public static final int DATA_STREAM_WINDOW = 8;
+
+    /* every feature this build of the protocol supports */
+    public static final int SUPPORTED = CELL_OWNERSHIP | COMPRESSION | STRING_DICTIONARY | DATA_STREAM_WINDOW;
+
+    private ProtocolFeatures() {
+    }
+}
@@ -0,0 +1,213 @@
+package puregero.multipaper.mastermessagingprotocol.messages;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import puregero.multipaper.mastermessagingprotocol.RequestStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * The callbacks of requests that are waiting for a reply. Transaction ids are
+ * handed out in order, so the table is a ring indexed by the id. When a slot
+ * is needed again while its request is still waiting, the ring grows if it's
+ * busy, otherwise the straggler is moved to an overflow map, so a single
+ * request that never gets a reply can't make the ring span every id sent
+ * since. The ring shrinks again once most requests have been replied to.
+ * Every request has a deadline, after which it's failed and removed.
+ */
+class TransactionTable<T> {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("multipaper.request.timeout.seconds", 300L));
+    private static final HashedWheelTimer timer = new HashedWheelTimer(new DefaultThreadFactory("MultiPaper Request Timeout", true), 100, TimeUnit.MILLISECONDS);
+
+    private static class Entry<T> {
+        private final int transactionId;
+        private final Class<?> type;
+        private final long sentNanos;
+        private final Consumer<T> callback;
+        private final Consumer<Throwable> onFailure;
+        private Timeout timeout;
+
+        private Entry(int transactionId, Class<?> type, Consumer<T> callback, Consumer<Throwable> onFailure) {
+            this.transactionId = transactionId;
+            this.type = type;
+            this.sentNanos = System.nanoTime();
+            this.callback = callback;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private static final int MIN_CAPACITY = 256;
+    private static final int MAX_CAPACITY = 16384;
+
+    private Entry<T>[] entries = newArray(MIN_CAPACITY);
+    // Requests that were still waiting when their slot in the ring was needed again, null when empty
+    private IntObjectHashMap<Entry<T>> overflow = null;
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newArray(int capacity) {
+        return (Entry<T>[]) new Entry<?>[capacity];
+    }
+
+    public synchronized void add(int transactionId, Class<?> type, Consumer<T> callback, Consumer<Throwable> onFailure) {
+        Entry<T> entry = new Entry<>(transactionId, type, callback, onFailure);
+        while (entries[transactionId & (entries.length - 1)] != null && entries.length < MAX_CAPACITY && size >= entries.length / 2) {
+            resize(entries.length << 1);
+        }
+
+        int index = transactionId & (entries.length - 1);
+        if (entries[index] != null) {
+            addToOverflow(entries[index]);
+        }
+        entries[index] = entry;
+        size++;
+
+        RequestStats.recordSent(type);
+        entry.timeout = timer.newTimeout(timeout -> timeOut(entry), TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /* must be called while holding the lock */
+    private void addToOverflow(Entry<T> entry) {
+        if (overflow == null) {
+            overflow = new IntObjectHashMap<>();
+        }
+        overflow.put(entry.transactionId, entry);
+    }
+
+    /* must be called while holding the lock, entries that collide are moved to the overflow map */
+    private void resize(int capacity) {
+        Entry<T>[] old = entries;
+        entries = newArray(capacity);
+        for (Entry<T> entry : old) {
+            if (entry != null) {
+                int index = entry.transactionId & (capacity - 1);
+                if (entries[index] == null) {
+                    entries[index] = entry;
+                } else {
+                    addToOverflow(entry);
+                }
+            }
+        }
+    }
+
+    /* must be called while holding the lock */
+    private Entry<T> get(int transactionId) {
+        Entry<T> entry = entries[transactionId & (entries.length - 1)];
+        if (entry != null && entry.transactionId == transactionId) {
+            return entry;
+        }
+        return overflow == null ? null : overflow.get(transactionId);
+    }
+
+    /* must be called while holding the lock */
+    private void remove(Entry<T> entry) {
+        int index = entry.transactionId & (entries.length - 1);
+        if (entries[index] == entry) {
+            entries[index] = null;
+        } else if (overflow != null && overflow.remove(entry.transactionId) != null && overflow.isEmpty()) {
+            overflow = null;
+        }
+        size--;
+
+        if (entries.length > MIN_CAPACITY && size < entries.length / 8) {
+            resize(entries.length >> 1);
+        }
+    }
+
+    /**
+     * @param lastReply Whether to remove the callback, otherwise the deadline
+     *                  is pushed back as the other side is still replying
+     * @return The callback, or null if there is no request waiting for this id
+     */
+    public Consumer<T> reply(int transactionId, boolean lastReply) {
+        Entry<T> entry;
+        synchronized (this) {
+            entry = get(transactionId);
+            if (entry == null) {
+                return null;
+            }
+
+            entry.timeout.cancel();
+            if (lastReply) {
+                remove(entry);
+            } else {
+                entry.timeout = timer.newTimeout(timeout -> timeOut(entry), TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (lastReply) {
+            RequestStats.recordReply(entry.type, System.nanoTime() - entry.sentNanos);
+        }
+        return entry.callback;
+    }
+
+    private void timeOut(Entry<T> entry) {
+        synchronized (this) {
+            if (get(entry.transactionId) != entry || !entry.timeout.isExpired()) {
+                return;
+            }
+            remove(entry);
+        }
+
+        RequestStats.recordTimeout(entry.type);
+        fail(entry, new TimeoutException(entry.type.getSimpleName() + " (transaction " + entry.transactionId + ") got no reply within " + TimeUnit.NANOSECONDS.toSeconds(TIMEOUT_NANOS) + " seconds"));
+    }
+
+    /**
+     * Fail every request that's still waiting, such as when the channel has
+     * been closed.
+     */
+    public void failAll(Throwable cause) {
+        List<Entry<T>> failed = new ArrayList<>();
+        synchronized (this) {
+            for (Entry<T> entry : entries) {
+                if (entry != null) {
+                    failed.add(entry);
+                }
+            }
+            if (overflow != null) {
+                failed.addAll(overflow.values());
+            }
+            entries = newArray(MIN_CAPACITY);
+            overflow = null;
+            size = 0;
+        }
+
+        for (Entry<T> entry : failed) {
+            entry.timeout.cancel();
+            RequestStats.recordFailure(entry.type);
+            fail(entry, cause);
+        }
+    }
+
+    private void fail(Entry<T> entry, Throwable cause) {
+        if (entry.onFailure == null) {
+            if (cause instanceof TimeoutException) {
+                System.err.println(cause.getMessage());
+            }
+            return;
+        }
+
+        try {
+            entry.onFailure.accept(cause);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /* the current length of the ring, for tests */
+    synchronized int capacity() {
+        return entries.length;
+    }
+}
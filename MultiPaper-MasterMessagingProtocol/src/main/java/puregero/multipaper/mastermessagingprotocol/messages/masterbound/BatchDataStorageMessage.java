@@ -0,0 +1,99 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run every operation as one transaction, replied to with a
+ * BatchDataStorageMessageReply. If any COMPARE_AND_SET fails, nothing is
+ * changed.
+ */
+public class BatchDataStorageMessage extends MasterBoundMessage {
+
+    public final List<Operation> operations;
+
+    public BatchDataStorageMessage(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    public BatchDataStorageMessage(ExtendedByteBuf byteBuf) {
+        int count = byteBuf.readVarInt();
+        operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = byteBuf.readString();
+            Action action = Action.values()[byteBuf.readVarInt()];
+            String value = readNullableString(byteBuf);
+            String expected = action == Action.COMPARE_AND_SET ? readNullableString(byteBuf) : null;
+            operations.add(new Operation(key, action, value, expected));
+        }
+    }
+
+    private static String readNullableString(ExtendedByteBuf byteBuf) {
+        return byteBuf.readBoolean() ? byteBuf.readString() : null;
+    }
+
+    private static void writeNullableString(ExtendedByteBuf byteBuf, String string) {
+        byteBuf.writeBoolean(string != null);
+        if (string != null) {
+            byteBuf.writeString(string);
+        }
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(operations.size());
+        for (Operation operation : operations) {
+            byteBuf.writeString(operation.key);
+            byteBuf.writeVarInt(operation.action.ordinal());
+            writeNullableString(byteBuf, operation.value);
+            if (operation.action == Action.COMPARE_AND_SET) {
+                writeNullableString(byteBuf, operation.expected);
+            }
+        }
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+
+    public static class Operation {
+
+        public final String key;
+        public final Action action;
+        public final String value; // null to remove the key
+        public final String expected; // the value required by COMPARE_AND_SET, null for no value
+
+        public Operation(String key, Action action, String value, String expected) {
+            this.key = key;
+            this.action = action;
+            this.value = value;
+            this.expected = expected;
+        }
+
+        public static Operation get(String key) {
+            return new Operation(key, Action.GET, null, null);
+        }
+
+        public static Operation set(String key, String value) {
+            return new Operation(key, Action.SET, value, null);
+        }
+
+        public static Operation add(String key, String value) {
+            return new Operation(key, Action.ADD, value, null);
+        }
+
+        public static Operation compareAndSet(String key, String expected, String value) {
+            return new Operation(key, Action.COMPARE_AND_SET, value, expected);
+        }
+    }
+
+    public static enum Action {
+        GET,
+        SET,
+        ADD,
+        COMPARE_AND_SET;
+    }
+}
@@ -17,18 +17,18 @@ public class ChunkChangedStatusMessage extends MasterBoundMessage {
     }
 
     public ChunkChangedStatusMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
-        status = byteBuf.readString();
+        status = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
-        byteBuf.writeString(status);
+        byteBuf.writeInternedString(status);
     }
 
     @Override
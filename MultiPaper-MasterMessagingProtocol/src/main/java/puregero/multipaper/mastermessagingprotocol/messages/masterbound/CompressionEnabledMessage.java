@@ -0,0 +1,30 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * The reply to a SetCompressionMessage. Every message after this one is sent
+ * compressed.
+ */
+public class CompressionEnabledMessage extends MasterBoundMessage {
+
+    public final int threshold;
+
+    public CompressionEnabledMessage(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public CompressionEnabledMessage(ExtendedByteBuf byteBuf) {
+        threshold = byteBuf.readVarInt();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(threshold);
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -17,16 +17,16 @@ public class ForceReadChunkMessage extends MasterBoundMessage {
     }
 
     public ForceReadChunkMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
-        path = byteBuf.readString();
+        world = byteBuf.readInternedString();
+        path = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
-        byteBuf.writeString(path);
+        byteBuf.writeInternedString(world);
+        byteBuf.writeInternedString(path);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
     }
@@ -1,6 +1,7 @@
 package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
 
 import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+import puregero.multipaper.mastermessagingprotocol.messages.ProtocolFeatures;
 
 import java.util.UUID;
 
@@ -8,21 +9,29 @@ public class HelloMessage extends MasterBoundMessage {
 
     public final String name;
     public final UUID serverUuid;
+    public final int features;
 
     public HelloMessage(String name, UUID serverUuid) {
+        this(name, serverUuid, ProtocolFeatures.SUPPORTED);
+    }
+
+    public HelloMessage(String name, UUID serverUuid, int features) {
         this.name = name;
         this.serverUuid = serverUuid;
+        this.features = features;
     }
 
     public HelloMessage(ExtendedByteBuf byteBuf) {
         name = byteBuf.readString();
         serverUuid = byteBuf.readUUID();
+        features = byteBuf.isReadable() ? byteBuf.readVarInt() : 0; // Older servers don't send any features
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeString(name);
         byteBuf.writeUUID(serverUuid);
+        byteBuf.writeVarInt(features);
     }
 
     @Override
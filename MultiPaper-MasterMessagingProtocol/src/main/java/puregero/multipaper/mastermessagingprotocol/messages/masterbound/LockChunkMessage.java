@@ -15,14 +15,14 @@ public class LockChunkMessage extends MasterBoundMessage {
     }
 
     public LockChunkMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
     }
@@ -0,0 +1,33 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Acknowledges that the receiver of a data stream has consumed some of its
+ * data, allowing the sender to send that much more.
+ */
+public class MasterBoundDataStreamAckMessage extends MasterBoundMessage {
+    public final int streamId;
+    public final int length;
+
+    public MasterBoundDataStreamAckMessage(int streamId, int length) {
+        this.streamId = streamId;
+        this.length = length;
+    }
+
+    public MasterBoundDataStreamAckMessage(ExtendedByteBuf byteBuf) {
+        streamId = byteBuf.readVarInt();
+        length = byteBuf.readVarInt();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(streamId);
+        byteBuf.writeVarInt(length);
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.getDataStreamManager().handleAck(streamId, length);
+    }
+}
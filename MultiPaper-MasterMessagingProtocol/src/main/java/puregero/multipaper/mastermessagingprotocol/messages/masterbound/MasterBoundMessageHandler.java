@@ -1,9 +1,12 @@
 package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
 
 import puregero.multipaper.mastermessagingprotocol.messages.MessageHandler;
+import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundDataStreamAckMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundDataStreamMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.serverbound.ServerBoundMessage;
 
+import java.nio.ByteBuffer;
+
 public abstract class MasterBoundMessageHandler extends MessageHandler<MasterBoundMessage> {
 
     @Override
@@ -11,6 +14,16 @@ public abstract class MasterBoundMessageHandler extends MessageHandler<MasterBou
         return new ServerBoundDataStreamMessage(streamId, data, offset, length);
     }
 
+    @Override
+    public ServerBoundMessage createDataStreamMessage(int streamId, ByteBuffer data) {
+        return new ServerBoundDataStreamMessage(streamId, data);
+    }
+
+    @Override
+    public ServerBoundMessage createDataStreamAckMessage(int streamId, int length) {
+        return new ServerBoundDataStreamAckMessage(streamId, length);
+    }
+
     public abstract void handle(HelloMessage message);
 
     public abstract void handle(PingMessage pingMessage);
@@ -94,4 +107,16 @@ public abstract class MasterBoundMessageHandler extends MessageHandler<MasterBou
     public abstract void handle(WriteUidMessage message);
 
     public abstract void handle(RequestEntityIdBlock message);
+
+    public abstract void handle(ReadChunksMessage message);
+
+    public abstract void handle(CompressionEnabledMessage message);
+
+    public abstract void handle(StringDictionaryEnabledMessage message);
+
+    public abstract void handle(WatchDataStorageMessage message);
+
+    public abstract void handle(UnwatchDataStorageMessage message);
+
+    public abstract void handle(BatchDataStorageMessage message);
 }
@@ -48,6 +48,13 @@ public class MasterBoundProtocol extends Protocol<MasterBoundMessage> {
         addMessage(WriteStatsMessage.class, WriteStatsMessage::new);
         addMessage(WriteTickTimeMessage.class, WriteTickTimeMessage::new);
         addMessage(WriteUidMessage.class, WriteUidMessage::new);
+        addMessage(ReadChunksMessage.class, ReadChunksMessage::new);
+        addMessage(CompressionEnabledMessage.class, CompressionEnabledMessage::new);
+        addMessage(StringDictionaryEnabledMessage.class, StringDictionaryEnabledMessage::new);
+        addMessage(MasterBoundDataStreamAckMessage.class, MasterBoundDataStreamAckMessage::new);
+        addMessage(WatchDataStorageMessage.class, WatchDataStorageMessage::new);
+        addMessage(UnwatchDataStorageMessage.class, UnwatchDataStorageMessage::new);
+        addMessage(BatchDataStorageMessage.class, BatchDataStorageMessage::new);
     }
 
 }
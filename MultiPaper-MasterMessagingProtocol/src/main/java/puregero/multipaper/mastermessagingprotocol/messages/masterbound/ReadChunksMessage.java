@@ -0,0 +1,54 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Read many chunks of one world at once. Each chunk is replied to with its
+ * own ChunkDataMessageReply as soon as it has been read, in no particular
+ * order, and the last of them is marked as the last reply.
+ */
+public class ReadChunksMessage extends MasterBoundMessage {
+
+    public final String world;
+    public final String path;
+    public final int[] cxs;
+    public final int[] czs;
+
+    public ReadChunksMessage(String world, String path, int[] cxs, int[] czs) {
+        if (cxs.length != czs.length) {
+            throw new IllegalArgumentException("Got " + cxs.length + " x coordinates but " + czs.length + " z coordinates");
+        }
+
+        this.world = world;
+        this.path = path;
+        this.cxs = cxs;
+        this.czs = czs;
+    }
+
+    public ReadChunksMessage(ExtendedByteBuf byteBuf) {
+        world = byteBuf.readInternedString();
+        path = byteBuf.readInternedString();
+        cxs = new int[byteBuf.readVarInt()];
+        czs = new int[cxs.length];
+        for (int i = 0; i < cxs.length; i ++) {
+            cxs[i] = byteBuf.readInt();
+            czs[i] = byteBuf.readInt();
+        }
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeInternedString(world);
+        byteBuf.writeInternedString(path);
+        byteBuf.writeVarInt(cxs.length);
+        for (int i = 0; i < cxs.length; i ++) {
+            byteBuf.writeInt(cxs[i]);
+            byteBuf.writeInt(czs[i]);
+        }
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -11,12 +11,12 @@ public class ReadLevelMessage extends MasterBoundMessage {
     }
 
     public ReadLevelMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
     }
 
     @Override
@@ -13,13 +13,13 @@ public class ReadPlayerMessage extends MasterBoundMessage {
     }
 
     public ReadPlayerMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         uuid = byteBuf.readString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeString(uuid);
     }
 
@@ -22,7 +22,7 @@ public class RequestChunkOwnershipMessage extends MasterBoundMessage {
     }
 
     public RequestChunkOwnershipMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         chunks = new ChunkKey[byteBuf.readVarInt()];
         for (int i = 0; i < chunks.length; i++) {
             chunks[i] = byteBuf.readChunkKey();
@@ -32,7 +32,7 @@ public class RequestChunkOwnershipMessage extends MasterBoundMessage {
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeVarInt(chunks.length);
         for (ChunkKey key : chunks) {
             byteBuf.writeChunkKey(key);
@@ -0,0 +1,25 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * The reply to an EnableStringDictionaryMessage. World and server names in
+ * every message after this one are sent through a StringDictionary.
+ */
+public class StringDictionaryEnabledMessage extends MasterBoundMessage {
+
+    public StringDictionaryEnabledMessage() {
+    }
+
+    public StringDictionaryEnabledMessage(ExtendedByteBuf byteBuf) {
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -0,0 +1,26 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+public class UnwatchDataStorageMessage extends MasterBoundMessage {
+
+    public final String prefix;
+
+    public UnwatchDataStorageMessage(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public UnwatchDataStorageMessage(ExtendedByteBuf byteBuf) {
+        prefix = byteBuf.readString();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeString(prefix);
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
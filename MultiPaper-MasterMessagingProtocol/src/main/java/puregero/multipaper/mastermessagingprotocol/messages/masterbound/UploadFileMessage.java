@@ -24,13 +24,18 @@ public class UploadFileMessage extends MasterBoundMessage {
         byteBuf.readBytes(data);
     }
 
+    @Override
+    public int estimateSize() {
+        return 14 + ExtendedByteBuf.estimateStringSize(path) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeBoolean(immediatelySyncToOtherServers);
         byteBuf.writeString(path);
         byteBuf.writeLong(lastModified);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
     }
 
     @Override
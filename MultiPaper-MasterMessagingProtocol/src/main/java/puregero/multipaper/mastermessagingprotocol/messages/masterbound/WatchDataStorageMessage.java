@@ -0,0 +1,26 @@
+package puregero.multipaper.mastermessagingprotocol.messages.masterbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+public class WatchDataStorageMessage extends MasterBoundMessage {
+
+    public final String prefix;
+
+    public WatchDataStorageMessage(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public WatchDataStorageMessage(ExtendedByteBuf byteBuf) {
+        prefix = byteBuf.readString();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeString(prefix);
+    }
+
+    @Override
+    public void handle(MasterBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
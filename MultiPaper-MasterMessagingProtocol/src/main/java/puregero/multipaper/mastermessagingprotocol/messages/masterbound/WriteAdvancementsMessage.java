@@ -15,18 +15,23 @@ public class WriteAdvancementsMessage extends MasterBoundMessage {
     }
 
     public WriteAdvancementsMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         uuid = byteBuf.readString();
         data = new byte[byteBuf.readVarInt()];
         byteBuf.readBytes(data);
     }
 
+    @Override
+    public int estimateSize() {
+        return 5 + ExtendedByteBuf.estimateStringSize(world) + ExtendedByteBuf.estimateStringSize(uuid) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeString(uuid);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
     }
 
     @Override
@@ -25,8 +25,8 @@ public class WriteChunkMessage extends MasterBoundMessage {
     }
 
     public WriteChunkMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
-        path = byteBuf.readString();
+        world = byteBuf.readInternedString();
+        path = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
         data = new byte[byteBuf.readVarInt()];
@@ -34,14 +34,19 @@ public class WriteChunkMessage extends MasterBoundMessage {
         isTransientEntities = byteBuf.readBoolean();
     }
 
+    @Override
+    public int estimateSize() {
+        return 14 + ExtendedByteBuf.estimateStringSize(world) + ExtendedByteBuf.estimateStringSize(path) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
-        byteBuf.writeString(path);
+        byteBuf.writeInternedString(world);
+        byteBuf.writeInternedString(path);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
         byteBuf.writeBoolean(isTransientEntities);
     }
 
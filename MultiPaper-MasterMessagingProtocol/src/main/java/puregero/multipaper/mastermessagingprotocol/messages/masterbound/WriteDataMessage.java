@@ -18,11 +18,16 @@ public class WriteDataMessage extends MasterBoundMessage {
         byteBuf.readBytes(data);
     }
 
+    @Override
+    public int estimateSize() {
+        return 5 + ExtendedByteBuf.estimateStringSize(path) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeString(path);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
     }
 
     @Override
@@ -18,11 +18,16 @@ public class WriteJsonMessage extends MasterBoundMessage {
         byteBuf.readBytes(data);
     }
 
+    @Override
+    public int estimateSize() {
+        return 5 + ExtendedByteBuf.estimateStringSize(file) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeString(file);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
     }
 
     @Override
@@ -13,16 +13,21 @@ public class WriteLevelMessage extends MasterBoundMessage {
     }
 
     public WriteLevelMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         data = new byte[byteBuf.readVarInt()];
         byteBuf.readBytes(data);
     }
 
+    @Override
+    public int estimateSize() {
+        return 5 + ExtendedByteBuf.estimateStringSize(world) + ExtendedByteBuf.estimateLargeBytesSize(data.length);
+    }
+
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeVarInt(data.length);
-        byteBuf.writeBytes(data);
+        byteBuf.writeLargeBytes(data);
     }
 
     @Override
@@ -0,0 +1,50 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * A server has subscribed to a square cell of chunks.
+ */
+public class AddCellSubscriberMessage extends ServerBoundMessage {
+
+    public final String world;
+    public final int cx;
+    public final int cz;
+    public final int size;
+    public final String server;
+
+    /**
+     * @param cx The x coordinate of the cell's first chunk
+     * @param cz The z coordinate of the cell's first chunk
+     * @param size The width of the cell in chunks
+     */
+    public AddCellSubscriberMessage(String world, int cx, int cz, int size, String server) {
+        this.world = world;
+        this.cx = cx;
+        this.cz = cz;
+        this.size = size;
+        this.server = server;
+    }
+
+    public AddCellSubscriberMessage(ExtendedByteBuf byteBuf) {
+        world = byteBuf.readInternedString();
+        cx = byteBuf.readInt();
+        cz = byteBuf.readInt();
+        size = byteBuf.readVarInt();
+        server = byteBuf.readInternedString();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeInternedString(world);
+        byteBuf.writeInt(cx);
+        byteBuf.writeInt(cz);
+        byteBuf.writeVarInt(size);
+        byteBuf.writeInternedString(server);
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -17,18 +17,18 @@ public class AddChunkSubscriberMessage extends ServerBoundMessage {
     }
 
     public AddChunkSubscriberMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
-        server = byteBuf.readString();
+        server = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
-        byteBuf.writeString(server);
+        byteBuf.writeInternedString(server);
     }
 
     @Override
@@ -0,0 +1,48 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of each operation in a BatchDataStorageMessage, in order. If
+ * the batch wasn't committed, each result is instead the current value of
+ * the operation's key, ready to retry the batch with.
+ */
+public class BatchDataStorageMessageReply extends ServerBoundMessage {
+
+    public final boolean committed;
+    public final List<String> results; // null entries for keys without a value
+
+    public BatchDataStorageMessageReply(boolean committed, List<String> results) {
+        this.committed = committed;
+        this.results = results;
+    }
+
+    public BatchDataStorageMessageReply(ExtendedByteBuf byteBuf) {
+        committed = byteBuf.readBoolean();
+        int count = byteBuf.readVarInt();
+        results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(byteBuf.readBoolean() ? byteBuf.readString() : null);
+        }
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeBoolean(committed);
+        byteBuf.writeVarInt(results.size());
+        for (String result : results) {
+            byteBuf.writeBoolean(result != null);
+            if (result != null) {
+                byteBuf.writeString(result);
+            }
+        }
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        throw new UnsupportedOperationException("This message can only be handled in a reply");
+    }
+}
@@ -0,0 +1,87 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * One chunk in reply to a ReadChunksMessage. Either holds the chunk's data
+ * (empty if it doesn't exist), or the name of the server that already has
+ * the chunk loaded, or is marked as failed if the chunk couldn't be read.
+ * A failed chunk must be read again, it must not be treated as missing.
+ */
+public class ChunkDataMessageReply extends ServerBoundMessage {
+
+    public final int cx;
+    public final int cz;
+    public final byte[] data;
+    public final String loadedOnServer;
+    public final boolean failed;
+    public final boolean last;
+
+    public ChunkDataMessageReply(int cx, int cz, byte[] data, String loadedOnServer, boolean last) {
+        this(cx, cz, data, loadedOnServer, false, last);
+    }
+
+    private ChunkDataMessageReply(int cx, int cz, byte[] data, String loadedOnServer, boolean failed, boolean last) {
+        this.cx = cx;
+        this.cz = cz;
+        this.data = data;
+        this.loadedOnServer = loadedOnServer;
+        this.failed = failed;
+        this.last = last;
+    }
+
+    public static ChunkDataMessageReply failed(int cx, int cz, boolean last) {
+        return new ChunkDataMessageReply(cx, cz, null, null, true, last);
+    }
+
+    public ChunkDataMessageReply(ExtendedByteBuf byteBuf) {
+        cx = byteBuf.readInt();
+        cz = byteBuf.readInt();
+        last = byteBuf.readBoolean();
+        failed = byteBuf.readBoolean();
+        if (failed) {
+            loadedOnServer = null;
+            data = null;
+        } else if (byteBuf.readBoolean()) {
+            loadedOnServer = byteBuf.readInternedString();
+            data = null;
+        } else {
+            loadedOnServer = null;
+            data = new byte[byteBuf.readVarInt()];
+            byteBuf.readBytes(data);
+        }
+    }
+
+    @Override
+    public int estimateSize() {
+        return 11 + (failed ? 0 : loadedOnServer != null ? ExtendedByteBuf.estimateStringSize(loadedOnServer) : 5 + ExtendedByteBuf.estimateLargeBytesSize(data.length));
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeInt(cx);
+        byteBuf.writeInt(cz);
+        byteBuf.writeBoolean(last);
+        byteBuf.writeBoolean(failed);
+        if (failed) {
+            return;
+        }
+        byteBuf.writeBoolean(loadedOnServer != null);
+        if (loadedOnServer != null) {
+            byteBuf.writeInternedString(loadedOnServer);
+        } else {
+            byteBuf.writeVarInt(data.length);
+            byteBuf.writeLargeBytes(data);
+        }
+    }
+
+    @Override
+    public boolean isLastReply() {
+        return last;
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        throw new UnsupportedOperationException("This message can only be handled in a reply");
+    }
+}
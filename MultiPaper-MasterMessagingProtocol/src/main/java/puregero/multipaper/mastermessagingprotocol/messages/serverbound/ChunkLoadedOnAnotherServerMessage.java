@@ -11,12 +11,12 @@ public class ChunkLoadedOnAnotherServerMessage extends ServerBoundMessage {
     }
 
     public ChunkLoadedOnAnotherServerMessage(ExtendedByteBuf byteBuf) {
-        server = byteBuf.readString();
+        server = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(server);
+        byteBuf.writeInternedString(server);
     }
 
     @Override
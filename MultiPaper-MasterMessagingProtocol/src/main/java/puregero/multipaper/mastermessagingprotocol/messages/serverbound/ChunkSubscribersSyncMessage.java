@@ -19,25 +19,25 @@ public class ChunkSubscribersSyncMessage extends ServerBoundMessage {
     }
 
     public ChunkSubscribersSyncMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
-        owner = byteBuf.readString();
+        owner = byteBuf.readInternedString();
         subscribers = new String[byteBuf.readVarInt()];
         for (int i = 0; i < subscribers.length; i ++) {
-            subscribers[i] = byteBuf.readString();
+            subscribers[i] = byteBuf.readInternedString();
         }
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
-        byteBuf.writeString(owner);
+        byteBuf.writeInternedString(owner);
         byteBuf.writeVarInt(subscribers.length);
         for (String subscriber : subscribers) {
-            byteBuf.writeString(subscriber);
+            byteBuf.writeInternedString(subscriber);
         }
     }
 
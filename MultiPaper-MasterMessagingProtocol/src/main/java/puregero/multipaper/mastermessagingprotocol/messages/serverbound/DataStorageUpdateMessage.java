@@ -0,0 +1,46 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * A key matching a watched prefix has changed. Updates to one key can
+ * arrive out of order, and before or after the DataStorageWatchMessageReply,
+ * an update with a lower version than the last one seen for the key is stale.
+ */
+public class DataStorageUpdateMessage extends ServerBoundMessage {
+
+    public final String key;
+    public final String value; // null if the key has been removed
+    public final long version;
+
+    public DataStorageUpdateMessage(String key, String value, long version) {
+        this.key = key;
+        this.value = value;
+        this.version = version;
+    }
+
+    public DataStorageUpdateMessage(ExtendedByteBuf byteBuf) {
+        key = byteBuf.readString();
+        if (byteBuf.readBoolean()) {
+            value = byteBuf.readString();
+        } else {
+            value = null;
+        }
+        version = byteBuf.readLong();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeString(key);
+        byteBuf.writeBoolean(value != null);
+        if (value != null) {
+            byteBuf.writeString(value);
+        }
+        byteBuf.writeLong(version);
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -0,0 +1,53 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every key starting with the watched prefix, taken after the watch started.
+ * Updates sent before the snapshot was taken can still arrive after this
+ * reply, so an entry must only be replaced by a DataStorageUpdateMessage with
+ * a higher version. Removed keys are included with a null value, so that a
+ * late update can't bring them back.
+ */
+public class DataStorageWatchMessageReply extends ServerBoundMessage {
+
+    public record Entry(String key, String value, long version) {
+    }
+
+    public final List<Entry> entries;
+
+    public DataStorageWatchMessageReply(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public DataStorageWatchMessageReply(ExtendedByteBuf byteBuf) {
+        int count = byteBuf.readVarInt();
+        entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = byteBuf.readString();
+            String value = byteBuf.readBoolean() ? byteBuf.readString() : null;
+            entries.add(new Entry(key, value, byteBuf.readLong()));
+        }
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(entries.size());
+        for (Entry entry : entries) {
+            byteBuf.writeString(entry.key);
+            byteBuf.writeBoolean(entry.value != null);
+            if (entry.value != null) {
+                byteBuf.writeString(entry.value);
+            }
+            byteBuf.writeLong(entry.version);
+        }
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        throw new UnsupportedOperationException("This message can only be handled in a reply");
+    }
+}
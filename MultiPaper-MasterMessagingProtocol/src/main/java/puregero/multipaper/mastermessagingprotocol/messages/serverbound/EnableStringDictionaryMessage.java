@@ -0,0 +1,27 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Sent to servers with the STRING_DICTIONARY feature. World and server names
+ * in every message after this one are sent through a StringDictionary, and
+ * the server should reply with a StringDictionaryEnabledMessage before doing
+ * the same.
+ */
+public class EnableStringDictionaryMessage extends ServerBoundMessage {
+
+    public EnableStringDictionaryMessage() {
+    }
+
+    public EnableStringDictionaryMessage(ExtendedByteBuf byteBuf) {
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -0,0 +1,30 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Sent to servers in reply to their HelloMessage, the protocol features that
+ * both the master and the server support.
+ */
+public class ProtocolFeaturesMessage extends ServerBoundMessage {
+
+    public final int features;
+
+    public ProtocolFeaturesMessage(int features) {
+        this.features = features;
+    }
+
+    public ProtocolFeaturesMessage(ExtendedByteBuf byteBuf) {
+        features = byteBuf.readVarInt();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(features);
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
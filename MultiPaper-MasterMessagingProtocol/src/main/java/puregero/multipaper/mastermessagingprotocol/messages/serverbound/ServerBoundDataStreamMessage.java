@@ -2,17 +2,33 @@ package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
 
 import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
 
+import java.nio.ByteBuffer;
+
 public class ServerBoundDataStreamMessage extends ServerBoundMessage {
     public final int streamId;
     public final byte[] data;
     private final int offset;
     private final int length;
+    private final ByteBuffer buffer;
 
     public ServerBoundDataStreamMessage(int streamId, byte[] data, int offset, int length) {
         this.streamId = streamId;
         this.data = data;
         this.offset = offset;
         this.length = length;
+        this.buffer = null;
+    }
+
+    /**
+     * Send the contents of the buffer, such as a mapped file, without copying
+     * it into an array first.
+     */
+    public ServerBoundDataStreamMessage(int streamId, ByteBuffer buffer) {
+        this.streamId = streamId;
+        this.data = null;
+        this.offset = 0;
+        this.length = buffer.remaining();
+        this.buffer = buffer;
     }
 
     public ServerBoundDataStreamMessage(ExtendedByteBuf byteBuf) {
@@ -21,13 +37,23 @@ public class ServerBoundDataStreamMessage extends ServerBoundMessage {
         byteBuf.readBytes(data);
         offset = 0;
         length = data.length;
+        buffer = null;
+    }
+
+    @Override
+    public int estimateSize() {
+        return 10 + ExtendedByteBuf.estimateLargeBytesSize(length);
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
         byteBuf.writeVarInt(streamId);
         byteBuf.writeVarInt(length);
-        byteBuf.writeBytes(data, offset, length);
+        if (buffer != null) {
+            byteBuf.writeLargeBytes(buffer);
+        } else {
+            byteBuf.writeLargeBytes(data, offset, length);
+        }
     }
 
     @Override
@@ -1,6 +1,10 @@
 package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
 
+import puregero.multipaper.mastermessagingprotocol.MessageEncoder;
 import puregero.multipaper.mastermessagingprotocol.messages.MessageHandler;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.CompressionEnabledMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.StringDictionaryEnabledMessage;
+import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundDataStreamAckMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundDataStreamMessage;
 import puregero.multipaper.mastermessagingprotocol.messages.masterbound.MasterBoundMessage;
 
@@ -11,6 +15,11 @@ public abstract class ServerBoundMessageHandler extends MessageHandler<ServerBou
         return new MasterBoundDataStreamMessage(streamId, data, offset, length);
     }
 
+    @Override
+    public MasterBoundMessage createDataStreamAckMessage(int streamId, int length) {
+        return new MasterBoundDataStreamAckMessage(streamId, length);
+    }
+
     public abstract void handle(ServerInfoUpdateMessage message);
 
     public abstract void handle(SetSecretMessage message);
@@ -38,4 +47,47 @@ public abstract class ServerBoundMessageHandler extends MessageHandler<ServerBou
     public abstract void handle(ChunkSubscribersSyncMessage message);
 
     public abstract void handle(EntitySubscribersSyncMessage message);
+
+    public void handle(SetCellOwnerMessage message) {
+        for (int x = 0; x < message.size; x++) {
+            for (int z = 0; z < message.size; z++) {
+                handle(new SetChunkOwnerMessage(message.world, message.cx + x, message.cz + z, message.owner));
+            }
+        }
+    }
+
+    public void handle(AddCellSubscriberMessage message) {
+        for (int x = 0; x < message.size; x++) {
+            for (int z = 0; z < message.size; z++) {
+                handle(new AddChunkSubscriberMessage(message.world, message.cx + x, message.cz + z, message.server));
+            }
+        }
+    }
+
+    public void handle(RemoveCellSubscriberMessage message) {
+        for (int x = 0; x < message.size; x++) {
+            for (int z = 0; z < message.size; z++) {
+                handle(new RemoveChunkSubscriberMessage(message.world, message.cx + x, message.cz + z, message.server));
+            }
+        }
+    }
+
+    public void handle(SetCompressionMessage message) {
+        MessageEncoder.sendAndEnableCompression(getChannel(), new CompressionEnabledMessage(message.threshold), message.threshold);
+    }
+
+    public void handle(ProtocolFeaturesMessage message) {
+        setProtocolFeatures(message.features);
+    }
+
+    public void handle(EnableStringDictionaryMessage message) {
+        MessageEncoder.sendAndEnableStringDictionary(getChannel(), new StringDictionaryEnabledMessage());
+    }
+
+    /**
+     * A key under a prefix watched with WatchDataStorageMessage has changed.
+     */
+    public void handle(DataStorageUpdateMessage message) {
+        // Only servers that watch keys need to handle this
+    }
 }
@@ -28,6 +28,17 @@ public class ServerBoundProtocol extends Protocol<ServerBoundMessage> {
         addMessage(NullableStringMessageReply.class, NullableStringMessageReply::new);
         addMessage(KeyValueStringMapMessageReply.class, KeyValueStringMapMessageReply::new);
         addMessage(IntegerPairMessageReply.class, IntegerPairMessageReply::new);
+        addMessage(ChunkDataMessageReply.class, ChunkDataMessageReply::new);
+        addMessage(SetCellOwnerMessage.class, SetCellOwnerMessage::new);
+        addMessage(AddCellSubscriberMessage.class, AddCellSubscriberMessage::new);
+        addMessage(RemoveCellSubscriberMessage.class, RemoveCellSubscriberMessage::new);
+        addMessage(SetCompressionMessage.class, SetCompressionMessage::new);
+        addMessage(EnableStringDictionaryMessage.class, EnableStringDictionaryMessage::new);
+        addMessage(ProtocolFeaturesMessage.class, ProtocolFeaturesMessage::new);
+        addMessage(ServerBoundDataStreamAckMessage.class, ServerBoundDataStreamAckMessage::new);
+        addMessage(DataStorageUpdateMessage.class, DataStorageUpdateMessage::new);
+        addMessage(BatchDataStorageMessageReply.class, BatchDataStorageMessageReply::new);
+        addMessage(DataStorageWatchMessageReply.class, DataStorageWatchMessageReply::new);
     }
 
 }
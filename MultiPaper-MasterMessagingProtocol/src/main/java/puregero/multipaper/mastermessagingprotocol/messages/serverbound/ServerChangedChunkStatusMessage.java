@@ -19,20 +19,20 @@ public class ServerChangedChunkStatusMessage extends ServerBoundMessage {
     }
 
     public ServerChangedChunkStatusMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
-        status = byteBuf.readString();
-        server = byteBuf.readString();
+        status = byteBuf.readInternedString();
+        server = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
-        byteBuf.writeString(status);
-        byteBuf.writeString(server);
+        byteBuf.writeInternedString(status);
+        byteBuf.writeInternedString(server);
     }
 
     @Override
@@ -15,14 +15,14 @@ public class ServerInfoUpdateMessage extends ServerBoundMessage {
     }
 
     public ServerInfoUpdateMessage(ExtendedByteBuf byteBuf) {
-        name = byteBuf.readString();
+        name = byteBuf.readInternedString();
         averageTickTime = byteBuf.readInt();
         tps = byteBuf.readFloat();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(name);
+        byteBuf.writeInternedString(name);
         byteBuf.writeInt(averageTickTime);
         byteBuf.writeFloat(tps);
     }
@@ -0,0 +1,51 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Sets the owner of every chunk in a square cell of chunks, an empty owner
+ * means the cell is no longer owned.
+ */
+public class SetCellOwnerMessage extends ServerBoundMessage {
+
+    public final String world;
+    public final int cx;
+    public final int cz;
+    public final int size;
+    public final String owner;
+
+    /**
+     * @param cx The x coordinate of the cell's first chunk
+     * @param cz The z coordinate of the cell's first chunk
+     * @param size The width of the cell in chunks
+     */
+    public SetCellOwnerMessage(String world, int cx, int cz, int size, String owner) {
+        this.world = world;
+        this.cx = cx;
+        this.cz = cz;
+        this.size = size;
+        this.owner = owner;
+    }
+
+    public SetCellOwnerMessage(ExtendedByteBuf byteBuf) {
+        world = byteBuf.readInternedString();
+        cx = byteBuf.readInt();
+        cz = byteBuf.readInt();
+        size = byteBuf.readVarInt();
+        owner = byteBuf.readInternedString();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeInternedString(world);
+        byteBuf.writeInt(cx);
+        byteBuf.writeInt(cz);
+        byteBuf.writeVarInt(size);
+        byteBuf.writeInternedString(owner);
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
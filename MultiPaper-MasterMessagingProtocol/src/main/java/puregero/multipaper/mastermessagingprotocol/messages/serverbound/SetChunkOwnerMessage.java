@@ -17,18 +17,18 @@ public class SetChunkOwnerMessage extends ServerBoundMessage {
     }
 
     public SetChunkOwnerMessage(ExtendedByteBuf byteBuf) {
-        world = byteBuf.readString();
+        world = byteBuf.readInternedString();
         cx = byteBuf.readInt();
         cz = byteBuf.readInt();
-        owner = byteBuf.readString();
+        owner = byteBuf.readInternedString();
     }
 
     @Override
     public void write(ExtendedByteBuf byteBuf) {
-        byteBuf.writeString(world);
+        byteBuf.writeInternedString(world);
         byteBuf.writeInt(cx);
         byteBuf.writeInt(cz);
-        byteBuf.writeString(owner);
+        byteBuf.writeInternedString(owner);
     }
 
     @Override
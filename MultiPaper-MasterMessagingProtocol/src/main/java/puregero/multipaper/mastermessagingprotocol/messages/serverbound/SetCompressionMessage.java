@@ -0,0 +1,31 @@
+package puregero.multipaper.mastermessagingprotocol.messages.serverbound;
+
+import puregero.multipaper.mastermessagingprotocol.ExtendedByteBuf;
+
+/**
+ * Sent to servers with the COMPRESSION feature. Every message after this one
+ * is sent compressed, and the server should reply with a
+ * CompressionEnabledMessage before compressing its own messages.
+ */
+public class SetCompressionMessage extends ServerBoundMessage {
+
+    public final int threshold;
+
+    public SetCompressionMessage(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public SetCompressionMessage(ExtendedByteBuf byteBuf) {
+        threshold = byteBuf.readVarInt();
+    }
+
+    @Override
+    public void write(ExtendedByteBuf byteBuf) {
+        byteBuf.writeVarInt(threshold);
+    }
+
+    @Override
+    public void handle(ServerBoundMessageHandler handler) {
+        handler.handle(this);
+    }
+}
@@ -0,0 +1,118 @@
+package puregero.multipaper.mastermessagingprotocol.messages;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Run with -Dmultipaper.request.timeout.seconds=1, as the build does, or the
+ * timeout test waits for the default timeout.
+ */
+class TransactionTableTest {
+
+    private static void add(TransactionTable<String> table, int transactionId) {
+        table.add(transactionId, String.class, value -> {}, null);
+    }
+
+    @Test
+    void replyReturnsTheCallbackOnce() {
+        TransactionTable<String> table = new TransactionTable<>();
+        Consumer<String> callback = value -> {};
+        table.add(7, String.class, callback, null);
+
+        assertNull(table.reply(8, true));
+        assertSame(callback, table.reply(7, false));
+        assertSame(callback, table.reply(7, true));
+        assertNull(table.reply(7, true));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void growsWhileBusyAndShrinksOnceReplied() {
+        TransactionTable<String> table = new TransactionTable<>();
+        int initialCapacity = table.capacity();
+        int count = initialCapacity * 4;
+
+        for (int i = 0; i < count; i++) {
+            add(table, i);
+        }
+        assertEquals(count, table.size());
+        assertEquals(count, table.capacity());
+
+        for (int i = 0; i < count; i++) {
+            assertNotNull(table.reply(i, true), "lost transaction " + i);
+        }
+        assertEquals(0, table.size());
+        assertEquals(initialCapacity, table.capacity());
+    }
+
+    @Test
+    void stragglerDoesNotGrowTheRing() {
+        TransactionTable<String> table = new TransactionTable<>();
+        int capacity = table.capacity();
+        add(table, 0);
+
+        // Wraps around the ring many times while only two requests are waiting at once
+        for (int i = 1; i < capacity * 100; i++) {
+            add(table, i);
+            assertNotNull(table.reply(i, true));
+        }
+
+        assertEquals(capacity, table.capacity());
+        assertEquals(1, table.size());
+        assertNotNull(table.reply(0, true));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void transactionIdsCanWrapAround() {
+        TransactionTable<String> table = new TransactionTable<>();
+        for (int i = Integer.MAX_VALUE - 10; i != Integer.MIN_VALUE + 10; i++) {
+            add(table, i);
+        }
+        for (int i = Integer.MAX_VALUE - 10; i != Integer.MIN_VALUE + 10; i++) {
+            assertNotNull(table.reply(i, true));
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void unansweredRequestTimesOut() throws Exception {
+        TransactionTable<String> table = new TransactionTable<>();
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        table.add(1, String.class, value -> {}, failure::complete);
+
+        assertInstanceOf(TimeoutException.class, failure.get(30, TimeUnit.SECONDS));
+        assertEquals(0, table.size());
+        assertNull(table.reply(1, true));
+    }
+
+    @Test
+    void failAllFailsEveryWaitingRequest() {
+        TransactionTable<String> table = new TransactionTable<>();
+        List<Throwable> failures = new ArrayList<>();
+        int count = table.capacity() * 2;
+        for (int i = 0; i < count; i++) {
+            table.add(i, String.class, value -> {}, failures::add);
+        }
+
+        Exception cause = new Exception("Channel closed");
+        table.failAll(cause);
+
+        assertEquals(count, failures.size());
+        failures.forEach(failure -> assertSame(cause, failure));
+        assertEquals(0, table.size());
+        assertNull(table.reply(0, true));
+    }
+}
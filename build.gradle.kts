@@ -6,6 +6,7 @@ plugins {
     `maven-publish`
     id("com.github.johnrengelman.shadow") version "8.1.1"
     id("io.papermc.paperweight.patcher") version "1.5.7-SNAPSHOT"
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
 
 repositories {